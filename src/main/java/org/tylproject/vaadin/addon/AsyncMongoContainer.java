@@ -0,0 +1,306 @@
+/**
+ * Copyright (c) 2014 - Tyl Consulting s.a.s.
+ *
+ *    Authors: Edoardo Vacchi
+ *    Contributors: Marco Pancotti, Daniele Zonca
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.tylproject.vaadin.addon;
+
+import com.vaadin.data.util.BeanItem;
+import org.bson.types.ObjectId;
+import org.tylproject.vaadin.addon.utils.ObjectIdPage;
+import org.tylproject.vaadin.addon.utils.Page;
+
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * A {@link org.tylproject.vaadin.addon.MongoContainer} that never waits
+ * for the DB on the methods used to render a lazy table:
+ * {@link #size()}, {@link #getItemIds(int, int)}, {@link #getIdByIndex(int)},
+ * {@link #getItem(Object)}, {@link #containsId(Object)} and {@link #indexOfId(Object)}.
+ *
+ * When the requested rows are not loaded yet, they are returned as placeholders
+ * (see {@link #isPlaceholder(Object)}), whose items hold an empty bean,
+ * and they are fetched on the fetch executor. Once they have arrived,
+ * an ItemSetChangeEvent is fired through the dispatcher, so that the listeners
+ * read them again; in a Vaadin application, the dispatcher should run the tasks
+ * with <code>UI.access()</code>, and the UI should have push enabled.
+ *
+ * The size is the last known one until a count completes. All the other methods
+ * (e.g., navigation) still query the DB when their result is not cached,
+ * as does {@link #getItem(Object)} when the item cache is disabled.
+ */
+public class AsyncMongoContainer<Bean> extends MongoContainer<Bean> {
+
+    protected final Executor fetchExecutor;
+    protected final Executor dispatcher;
+
+    /**
+     * incremented at each invalidation, so that stale results are not announced
+     */
+    private final AtomicInteger version = new AtomicInteger();
+    private volatile int knownSize = 0;
+    private final AtomicBoolean countInFlight = new AtomicBoolean(false);
+    private final Set<List<Integer>> pagesInFlight =
+            Collections.newSetFromMap(new ConcurrentHashMap<List<Integer>, Boolean>());
+    private final Set<ObjectId> itemsInFlight =
+            Collections.newSetFromMap(new ConcurrentHashMap<ObjectId, Boolean>());
+
+    /**
+     * placeholder ids by index, and vice versa
+     */
+    private final ConcurrentMap<Integer, ObjectId> placeholderIds = new ConcurrentHashMap<Integer, ObjectId>();
+    private final ConcurrentMap<ObjectId, Integer> placeholderIndices = new ConcurrentHashMap<ObjectId, Integer>();
+
+    AsyncMongoContainer(Builder<Bean> bldr, Executor fetchExecutor, Executor dispatcher) {
+        super(bldr);
+        this.fetchExecutor = fetchExecutor;
+        this.dispatcher = dispatcher;
+
+        // nothing has been fetched yet
+        this.page = new ObjectIdPage(pageSize, 0, 0);
+        this.page.setInvalid();
+    }
+
+    /**
+     * @return true if the given id stands for a row that is still being fetched
+     */
+    public boolean isPlaceholder(Object itemId) {
+        return placeholderIndices.containsKey(itemId);
+    }
+
+    @Override
+    public int size() {
+        Long count = countCache.get(countFingerprint());
+        if (count != null) return count.intValue();
+        requestCount();
+        return knownSize;
+    }
+
+    @Override
+    public List<ObjectId> getItemIds(int startIndex, int numberOfItems) {
+        publishReadAheads();
+
+        final Page<ObjectId> page = this.page;
+        if (page.isValid() && page.isWithinRange(startIndex, numberOfItems)) {
+            return page.subList(startIndex, numberOfItems);
+        }
+        List<ObjectId> result = pageCache.find(startIndex, numberOfItems);
+        if (result != null) {
+            scheduleReadAhead(startIndex, numberOfItems);
+            return result;
+        }
+
+        requestPage(startIndex, numberOfItems);
+
+        int endIndex = Math.min(startIndex + numberOfItems, knownSize);
+        List<ObjectId> placeholders = new ArrayList<ObjectId>();
+        for (int i = startIndex; i < endIndex; i++) placeholders.add(placeholderId(i));
+        return Collections.unmodifiableList(placeholders);
+    }
+
+    @Override
+    @Nullable
+    public ObjectId getIdByIndex(int index) {
+        if (index < 0 || index >= knownSize) return null;
+
+        Page<ObjectId> cached = pageCache.pageContaining(index);
+        if (cached != null) return cached.get(index);
+
+        requestPage(index - index % pageSize, pageSize);
+        return placeholderId(index);
+    }
+
+    @Override
+    public BeanItem<Bean> getItem(Object o) {
+        if (o == null) return null;
+        if (isPlaceholder(o)) return makeBeanItem(beanFactory.newInstance());
+        if (itemCache.getMaxSize() == 0) return super.getItem(o);
+
+        ObjectId id = assertIdValid(o);
+        BeanItem<Bean> beanItem = itemCache.get(id);
+        if (beanItem != null) return beanItem;
+
+        requestItem(id);
+        return makeBeanItem(beanFactory.newInstance());
+    }
+
+    @Override
+    public boolean containsId(Object itemId) {
+        if (itemId == null) return false;
+        Integer index = placeholderIndices.get(itemId);
+        if (index != null) return index < knownSize;
+        if (isCached(assertIdValid(itemId))) return true;
+        return super.containsId(itemId);
+    }
+
+    @Override
+    public int indexOfId(Object itemId) {
+        if (itemId == null) return -1;
+        Integer index = placeholderIndices.get(itemId);
+        if (index != null) return index;
+
+        int cachedIndex = pageCache.indexOf(assertIdValid(itemId));
+        if (cachedIndex > -1) return cachedIndex;
+        return super.indexOfId(itemId);
+    }
+
+    @Override
+    protected void invalidatePages() {
+        super.invalidatePages();
+        version.incrementAndGet();
+        placeholderIds.clear();
+        placeholderIndices.clear();
+    }
+
+    /**
+     * @return the (stable) placeholder id for the given index
+     */
+    protected ObjectId placeholderId(int index) {
+        ObjectId id = placeholderIds.get(index);
+        if (id != null) return id;
+
+        ObjectId newId = new ObjectId();
+        id = placeholderIds.putIfAbsent(index, newId);
+        if (id != null) return id;
+        placeholderIndices.put(newId, index);
+        return newId;
+    }
+
+    /**
+     * forgets the placeholders in the given range, now that the actual ids are known
+     */
+    private void dropPlaceholders(int offset, int limit) {
+        for (int i = offset; i < offset + limit; i++) {
+            ObjectId id = placeholderIds.remove(i);
+            if (id != null) placeholderIndices.remove(id);
+        }
+    }
+
+    /**
+     * counts the items on the fetch executor, unless a count is already running
+     */
+    protected void requestCount() {
+        if (!countInFlight.compareAndSet(false, true)) return;
+        final int expectedVersion = version.get();
+
+        fetchExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (updateKnownSize(expectedVersion)) announce(expectedVersion);
+                } catch (RuntimeException ex) {
+                    log.log(Level.WARNING, "background count failed", ex);
+                } finally {
+                    countInFlight.set(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * fetches the given range (and its items) on the fetch executor,
+     * unless it is already being fetched
+     */
+    protected void requestPage(final int offset, final int limit) {
+        final int expectedVersion = version.get();
+        final List<Integer> key = Arrays.asList(expectedVersion, offset, limit);
+        if (!pagesInFlight.add(key)) return;
+
+        fetchExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (expectedVersion != version.get()) return;
+                    // the count is cached first, so that the page is bounded without waiting
+                    updateKnownSize(expectedVersion);
+                    fetchPageOnce(offset, limit);
+                    dropPlaceholders(offset, limit);
+                    announce(expectedVersion);
+                } catch (RuntimeException ex) {
+                    log.log(Level.WARNING, "background page fetch failed", ex);
+                } finally {
+                    pagesInFlight.remove(key);
+                }
+            }
+        });
+    }
+
+    /**
+     * loads the given item into the item cache on the fetch executor
+     */
+    protected void requestItem(final ObjectId itemId) {
+        if (!itemsInFlight.add(itemId)) return;
+        final int expectedVersion = version.get();
+
+        fetchExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // an id that does not exist anymore is not worth an event
+                    if (!getItems(Collections.singletonList(itemId)).isEmpty()) {
+                        announce(expectedVersion);
+                    }
+                } catch (RuntimeException ex) {
+                    log.log(Level.WARNING, "background item fetch failed", ex);
+                } finally {
+                    itemsInFlight.remove(itemId);
+                }
+            }
+        });
+    }
+
+    /**
+     * counts the items, caching the result
+     *
+     * @return true if the count is not the last known size
+     */
+    private boolean updateKnownSize(int expectedVersion) {
+        int size = super.size();
+        if (size == knownSize || expectedVersion != version.get()) return false;
+        knownSize = size;
+        return true;
+    }
+
+    /**
+     * fires an ItemSetChangeEvent through the dispatcher,
+     * unless the container has been invalidated in the meantime
+     */
+    private void announce(final int expectedVersion) {
+        dispatcher.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (expectedVersion == version.get()) notifyItemSetChange();
+            }
+        });
+    }
+
+    /**
+     * notifies the listeners that new data has arrived. Unlike {@link #fireItemSetChange()},
+     * it invalidates nothing, as that would drop the data that has just arrived
+     */
+    protected void notifyItemSetChange() {
+        fireItemSetChange(new BaseItemSetChangeEvent(this) {});
+    }
+}
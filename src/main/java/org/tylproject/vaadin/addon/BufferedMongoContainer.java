@@ -19,37 +19,228 @@
 
 package org.tylproject.vaadin.addon;
 
+import com.mongodb.AggregationOptions;
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteError;
+import com.mongodb.BulkWriteException;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.Cursor;
+import com.mongodb.DBCollection;
 import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
 import com.vaadin.data.Buffered;
 import com.vaadin.data.util.BeanItem;
 import org.bson.types.ObjectId;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.data.mongodb.core.mapping.event.BeforeConvertEvent;
+import org.springframework.data.mongodb.core.mapping.event.BeforeDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.BeforeSaveEvent;
+import org.tylproject.vaadin.addon.utils.CompiledQuery;
+import org.tylproject.vaadin.addon.utils.DocumentDiff;
+import org.tylproject.vaadin.addon.utils.ObjectIdPage;
 import org.tylproject.vaadin.addon.utils.Page;
+import org.tylproject.vaadin.addon.utils.PositionSet;
 
 import javax.annotation.Nullable;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
 
+/**
+ * A {@link org.tylproject.vaadin.addon.MongoContainer} that holds the changes
+ * in memory until they are committed.
+ *
+ * The pending changes are guarded by a read-write lock: any number of threads
+ * may read from the container at once, while changes are applied one at a time.
+ * On commit, the pending changes are taken out of the buffers before they are written,
+ * so that readers never wait for the DB; meanwhile, they see the collection
+ * as the writes are applied.
+ */
 public class BufferedMongoContainer<Bean> extends MongoContainer<Bean>
     implements Buffered {
 
+    private final ReadWriteLock bufferLock = new ReentrantReadWriteLock();
+    /**
+     * held for the whole duration of {@link #commit()}, so that commits do not interleave
+     */
+    private final Lock commitLock = new ReentrantLock();
+
     private final LinkedHashMap<ObjectId,BeanItem<Bean>> newItems = new LinkedHashMap<ObjectId, BeanItem<Bean>>();
     private final LinkedHashMap<ObjectId,BeanItem<Bean>> updatedItems = new LinkedHashMap<ObjectId, BeanItem<Bean>>();
     private final LinkedHashMap<ObjectId,BeanItem<Bean>> removedItems = new LinkedHashMap<ObjectId, BeanItem<Bean>>();
-    private final TreeSet<Integer> removedItemsIndices = new TreeSet<Integer>();
+    /**
+     * the positions of the removed items in the collection, under {@link #removedPositionsQuery}.
+     * Readers rank them again lazily when the query changes,
+     * so accesses are guarded by the monitor of the set
+     */
+    private final PositionSet removedPositions = new PositionSet();
+    /**
+     * the query the removed items have been ranked against, or null if they must be ranked again
+     */
+    @Nullable private CompiledQuery removedPositionsQuery;
+    /**
+     * the number of removed items that satisfy {@link #removedCountQuery},
+     * when they have been counted but not ranked; guarded like {@link #removedPositions}
+     */
+    private int removedCount;
+    @Nullable private CompiledQuery removedCountQuery;
+    /**
+     * each new item gets a sequence number, in the order it was added;
+     * its position among the new items is the number of live sequence numbers before it
+     */
+    private final Map<ObjectId, Integer> newItemSequence = new HashMap<ObjectId, Integer>();
+    private final PositionSet liveNewItems = new PositionSet();
+    private ObjectId[] newItemsBySequence = new ObjectId[16];
+    private int nextSequence = 0;
+    /**
+     * the documents of the updated items, as they were when {@link #updateItem(ObjectId)} was called
+     */
+    private final Map<ObjectId, DBObject> updatedSnapshots = new HashMap<ObjectId, DBObject>();
+
+    /**
+     * maximum number of writes sent in a single bulk operation
+     */
+    protected final int commitChunkSize;
+    /**
+     * maximum number of pending removals excluded from the queries with a <code>$nin</code>
+     */
+    protected final int removalExclusionThreshold;
+    /**
+     * a temporary collection with the ids of the pending removals, once they exceed
+     * {@link #removalExclusionThreshold}; null otherwise
+     */
+    @Nullable private DBCollection removalExclusions;
+    private long removalExclusionsCreated;
+
+    private static final String REMOVAL_EXCLUSIONS_INFIX = ".pendingRemovals.";
+    /**
+     * temporary collections older than this are considered abandoned (e.g., by an expired session),
+     * and dropped by the containers that create a new one
+     */
+    private static final long REMOVAL_EXCLUSIONS_MAX_AGE = TimeUnit.DAYS.toMillis(1);
+
+    @Nullable protected final MongoPersistentEntity<?> persistentEntity;
+    /**
+     * the <code>@Version</code> property of the entity, or null
+     */
+    @Nullable protected final MongoPersistentProperty versionProperty;
+    /**
+     * receives the mapping events of the committed entities, or null
+     */
+    @Nullable protected final ApplicationEventPublisher eventPublisher;
 
     BufferedMongoContainer(Builder<Bean> bldr) {
         super(bldr);
+        this.commitChunkSize = bldr.commitChunkSize;
+        this.removalExclusionThreshold = bldr.removalExclusionThreshold;
+        this.persistentEntity = mongoOps.getConverter().getMappingContext().getPersistentEntity(beanClass);
+        this.versionProperty = persistentEntity != null && persistentEntity.hasVersionProperty()?
+                persistentEntity.getVersionProperty() : null;
+        this.eventPublisher = bldr.eventPublisher;
     }
 
+    /**
+     * writes all the pending changes with unordered bulk operations
+     * of at most {@link #commitChunkSize} writes each: the new items are inserted,
+     * only the changed fields of the updated items are <code>$set</code> (or <code>$unset</code>),
+     * and the removed items are deleted
+     * with a single <code>{_id: {$in: [...]}}</code> per chunk.
+     *
+     * If some of the writes fail, the others are still applied; the failed changes
+     * remain pending, and a SourceException is thrown,
+     * caused by a {@link org.tylproject.vaadin.addon.BulkCommitException}
+     * that reports the ids affected by each failure.
+     * If the commit is interrupted by an exception instead (e.g., thrown by a listener
+     * of the mapping events), the changes written before it are not pending anymore,
+     * the others are; the SourceException is caused by that exception.
+     *
+     * Entities with a <code>@Version</code> property are checked like
+     * {@link org.springframework.data.mongodb.core.MongoOperations#save(Object)} does:
+     * new items get the initial version, and each update is sent on its own,
+     * so that it only applies to the version it was read with, and increments it;
+     * an update that finds another version fails, and stays pending.
+     * The mapping events are published only if the container has been built
+     * {@link org.tylproject.vaadin.addon.MongoContainer.Builder#withMappingEvents(ApplicationEventPublisher)}.
+     */
     @Override
     public void commit() throws SourceException {
+        commitLock.lock();
         try {
-            commitNewItems();
-            commitUpdatedItems();
-            commitRemovedItems();
-            clearBuffers();
+            // the writes are sent without holding the buffer lock,
+            // so that readers are not blocked meanwhile
+            final PendingChanges<Bean> pending;
+            bufferLock.writeLock().lock();
+            try {
+                pending = new PendingChanges<Bean>(newItems, updatedItems, updatedSnapshots, removedItems);
+                clearBuffers();
+                invalidatePages();
+            } finally {
+                bufferLock.writeLock().unlock();
+            }
+
+            List<BulkCommitException.Failure> failures = new ArrayList<BulkCommitException.Failure>();
+            // the ids of the changes that have been applied so far
+            Set<ObjectId> written = new HashSet<ObjectId>();
+            RuntimeException error = null;
+            try {
+                commitNewItems(pending.newItems, failures, written);
+                commitUpdatedItems(pending.updatedItems, pending.updatedSnapshots, failures, written);
+                commitRemovedItems(pending.removedItems.keySet(), failures, written);
+            } catch (RuntimeException ex) {
+                error = ex;
+            }
+
+            if (error != null) {
+                // e.g., a listener of the mapping events failed: the changes
+                // written before must not be pending anymore, or they would be written twice
+                Set<ObjectId> unwritten = pending.ids();
+                unwritten.removeAll(written);
+                restore(pending, unwritten);
+            } else if (!failures.isEmpty()) {
+                restore(pending, new BulkCommitException(failures).getFailedItemIds());
+            }
+            // part of the changes may have been written anyway
             fireItemSetChange();
-        } catch (RuntimeException ex) {
-            throw new SourceException(this, ex);
+
+            if (error != null) throw new SourceException(this, error);
+            if (!failures.isEmpty()) throw new SourceException(this, new BulkCommitException(failures));
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    /**
+     * the changes taken out of the buffers by {@link #commit()}
+     */
+    private static class PendingChanges<B> {
+        final Map<ObjectId, BeanItem<B>> newItems;
+        final Map<ObjectId, BeanItem<B>> updatedItems;
+        final Map<ObjectId, DBObject> updatedSnapshots;
+        final Map<ObjectId, BeanItem<B>> removedItems;
+
+        PendingChanges(Map<ObjectId, BeanItem<B>> newItems, Map<ObjectId, BeanItem<B>> updatedItems,
+                       Map<ObjectId, DBObject> updatedSnapshots, Map<ObjectId, BeanItem<B>> removedItems) {
+            this.newItems = new LinkedHashMap<ObjectId, BeanItem<B>>(newItems);
+            this.updatedItems = new LinkedHashMap<ObjectId, BeanItem<B>>(updatedItems);
+            this.updatedSnapshots = new HashMap<ObjectId, DBObject>(updatedSnapshots);
+            this.removedItems = new LinkedHashMap<ObjectId, BeanItem<B>>(removedItems);
+        }
+
+        Set<ObjectId> ids() {
+            Set<ObjectId> ids = new HashSet<ObjectId>(newItems.keySet());
+            ids.addAll(updatedItems.keySet());
+            ids.addAll(removedItems.keySet());
+            return ids;
         }
     }
 
@@ -58,41 +249,465 @@ public class BufferedMongoContainer<Bean> extends MongoContainer<Bean>
                 Arrays.asList(newItems, updatedItems, removedItems)) {
             temporaryStorage.clear();
         }
-        removedItemsIndices.clear();
+        updatedSnapshots.clear();
+        synchronized (removedPositions) {
+            removedPositions.clear();
+            removedPositionsQuery = null;
+            removedCountQuery = null;
+        }
+        clearNewItemPositions();
+        dropRemovalExclusions();
+        // cached items may hold uncommitted or discarded changes
+        itemCache.clear();
+    }
+
+    /**
+     * makes the given changes pending again, unless they have been
+     * superseded by the changes made while they were being committed
+     *
+     * @param failed the ids of the changes to restore
+     */
+    private void restore(PendingChanges<Bean> pending, Set<ObjectId> failed) {
+        bufferLock.writeLock().lock();
+        try {
+            for (Map.Entry<ObjectId, BeanItem<Bean>> e: pending.newItems.entrySet()) {
+                ObjectId id = e.getKey();
+                if (!failed.contains(id)) continue;
+                newItems.put(id, e.getValue());
+                addNewItemPosition(id);
+            }
+            for (Map.Entry<ObjectId, BeanItem<Bean>> e: pending.updatedItems.entrySet()) {
+                ObjectId id = e.getKey();
+                if (!failed.contains(id)) continue;
+                if (updatedItems.containsKey(id) || removedItems.containsKey(id)) continue;
+                updatedItems.put(id, e.getValue());
+                updatedSnapshots.put(id, pending.updatedSnapshots.get(id));
+            }
+            for (Map.Entry<ObjectId, BeanItem<Bean>> e: pending.removedItems.entrySet()) {
+                ObjectId id = e.getKey();
+                if (!failed.contains(id)) continue;
+                if (removedItems.containsKey(id)) continue;
+                updatedItems.remove(id);
+                updatedSnapshots.remove(id);
+                removedItems.put(id, e.getValue());
+                addRemovalExclusion(id);
+            }
+            itemCache.clear();
+
+            // the positions have changed with the committed writes
+            synchronized (removedPositions) {
+                removedPositionsQuery = null;
+                removedCountQuery = null;
+            }
+        } finally {
+            bufferLock.writeLock().unlock();
+        }
+    }
+
+    private void addNewItemPosition(ObjectId id) {
+        int sequence = nextSequence++;
+        if (sequence == newItemsBySequence.length)
+            newItemsBySequence = Arrays.copyOf(newItemsBySequence, sequence * 2);
+        newItemsBySequence[sequence] = id;
+        newItemSequence.put(id, sequence);
+        liveNewItems.add(sequence);
+    }
+
+    private void removeNewItemPosition(Object id) {
+        Integer sequence = newItemSequence.remove(id);
+        if (sequence == null) return;
+        liveNewItems.remove(sequence);
+        newItemsBySequence[sequence] = null;
+    }
+
+    private void clearNewItemPositions() {
+        newItemSequence.clear();
+        liveNewItems.clear();
+        Arrays.fill(newItemsBySequence, 0, nextSequence, null);
+        nextSequence = 0;
+    }
+
+    /**
+     * reads the ids of the stored items in the given range of this view.
+     *
+     * The pending removals are excluded by the server: up to
+     * {@link #removalExclusionThreshold} of them with a <code>$nin</code> on the query,
+     * beyond with a <code>$lookup</code> on a temporary collection that holds their ids.
+     * Either way, only the ids in the range are transferred.
+     */
+    protected List<ObjectId> storedIdsInRange(int skip, int limit) {
+        List<ObjectId> ids = new ArrayList<ObjectId>(limit);
+        if (removedItems.size() > removalExclusionThreshold) {
+            Cursor cursor = aggregateExcludingRemovals(skip, limit);
+            try {
+                while (cursor.hasNext()) ids.add((ObjectId) cursor.next().get(ID));
+            } finally {
+                cursor.close();
+            }
+            return ids;
+        }
+
+        DBCursor cursor;
+        if (removedItems.isEmpty()) {
+            cursor = cursorInRange(skip, limit);
+        } else {
+            CompiledQuery q = compiledQuery();
+            DBObject notRemoved = new BasicDBObject(ID,
+                    new BasicDBObject("$nin", new ArrayList<ObjectId>(removedItems.keySet())));
+            cursor = find(q.and(notRemoved), q.getSort()).skip(skip).limit(limit);
+        }
+        for (DBObject document: cursor) ids.add((ObjectId) document.get(ID));
+        return ids;
+    }
+
+    private Cursor aggregateExcludingRemovals(int skip, int limit) {
+        CompiledQuery q = compiledQuery();
+        List<DBObject> pipeline = Arrays.<DBObject>asList(
+                new BasicDBObject("$match", q.getFilter()),
+                new BasicDBObject("$sort", q.getSort()),
+                new BasicDBObject("$lookup", new BasicDBObject("from", removalExclusions().getName())
+                        .append("localField", ID)
+                        .append("foreignField", ID)
+                        .append("as", "_removed")),
+                new BasicDBObject("$match", new BasicDBObject("_removed", new BasicDBObject("$size", 0))),
+                new BasicDBObject("$skip", skip),
+                new BasicDBObject("$limit", limit),
+                new BasicDBObject("$project", new BasicDBObject(ID, true)));
+        return q.getCollection().aggregate(pipeline, AggregationOptions.builder()
+                .outputMode(AggregationOptions.OutputMode.CURSOR)
+                .allowDiskUse(true)
+                .build());
+    }
+
+    /**
+     * @return the temporary collection of the pending removals,
+     *          creating it with all their ids if needed
+     */
+    private synchronized DBCollection removalExclusions() {
+        // replace it well before it looks abandoned to the other containers
+        if (removalExclusions != null
+                && System.currentTimeMillis() - removalExclusionsCreated > REMOVAL_EXCLUSIONS_MAX_AGE / 2) {
+            dropRemovalExclusions();
+        }
+        if (removalExclusions == null) {
+            DBCollection c = collection();
+            dropAbandonedRemovalExclusions(c);
+            ObjectId suffix = new ObjectId();
+            DBCollection exclusions = c.getDB().getCollection(
+                    c.getName() + REMOVAL_EXCLUSIONS_INFIX + suffix);
+            for (List<ObjectId> chunk: chunks(removedItems.keySet())) {
+                BulkWriteOperation bulk = exclusions.initializeUnorderedBulkOperation();
+                for (ObjectId id: chunk) bulk.insert(new BasicDBObject(ID, id));
+                bulk.execute();
+            }
+            removalExclusions = exclusions;
+            removalExclusionsCreated = suffix.getDate().getTime();
+        }
+        return removalExclusions;
+    }
+
+    /**
+     * drops the temporary collections of the given collection that are older than
+     * {@link #REMOVAL_EXCLUSIONS_MAX_AGE}, e.g., those left behind by containers
+     * that have not been committed, discarded or closed.
+     * Their age is told by the ObjectId in their name
+     */
+    private void dropAbandonedRemovalExclusions(DBCollection c) {
+        String prefix = c.getName() + REMOVAL_EXCLUSIONS_INFIX;
+        long now = System.currentTimeMillis();
+        for (String name: c.getDB().getCollectionNames()) {
+            if (!name.startsWith(prefix)) continue;
+            String suffix = name.substring(prefix.length());
+            if (!ObjectId.isValid(suffix)) continue;
+            if (now - new ObjectId(suffix).getDate().getTime() <= REMOVAL_EXCLUSIONS_MAX_AGE) continue;
+            try {
+                c.getDB().getCollection(name).drop();
+            } catch (MongoException ex) {
+                log.log(Level.WARNING, "cannot drop " + name, ex);
+            }
+        }
+    }
+
+    /**
+     * releases the resources that the container holds on the server, i.e.
+     * the temporary collection of the pending removals, if any
+     * (see {@link org.tylproject.vaadin.addon.MongoContainer.Builder#withRemovalExclusionThreshold(int)}).
+     *
+     * The pending changes are kept, and the collection is created again if needed:
+     * call it when the container is no longer used, e.g. when its UI is detached
+     */
+    public void close() {
+        dropRemovalExclusions();
+    }
+
+    /**
+     * keeps the temporary collection of the pending removals, if any, up to date
+     */
+    private synchronized void addRemovalExclusion(ObjectId id) {
+        if (removalExclusions != null) removalExclusions.insert(new BasicDBObject(ID, id));
+    }
+
+    private synchronized void dropRemovalExclusions() {
+        if (removalExclusions == null) return;
+        try {
+            removalExclusions.drop();
+        } catch (MongoException ex) {
+            log.log(Level.WARNING, "cannot drop " + removalExclusions.getName(), ex);
+        }
+        removalExclusions = null;
+    }
+
+    /**
+     * @return the number of items in this view that are stored in the collection
+     */
+    private int storedSize() {
+        return super.size() - removedInQuery();
+    }
+
+    /**
+     * @return the number of removed items that satisfy the current query:
+     *          after a change to the filters, some may not be counted by it anymore
+     */
+    private int removedInQuery() {
+        if (removedItems.isEmpty()) return 0;
+        CompiledQuery q = compiledQuery();
+        synchronized (removedPositions) {
+            if (q == removedPositionsQuery) return removedPositions.size();
+            if (q == removedCountQuery) return removedCount;
+
+            // a count is cheaper than ranking each of them
+            int count = 0;
+            for (List<ObjectId> chunk: chunks(removedItems.keySet())) {
+                count += q.getCollection().count(
+                        q.and(new BasicDBObject(ID, new BasicDBObject("$in", chunk))));
+            }
+            removedCount = count;
+            removedCountQuery = q;
+            return count;
+        }
+    }
+
+    private void commitRemovedItems(Collection<ObjectId> removedIds, List<BulkCommitException.Failure> failures,
+                                    Set<ObjectId> written) {
+        for (List<ObjectId> chunk: chunks(removedIds)) {
+            BulkWriteOperation bulk = collection().initializeUnorderedBulkOperation();
+            DBObject query = new BasicDBObject(ID, new BasicDBObject("$in", chunk));
+            publish(new BeforeDeleteEvent<Bean>(query, beanClass));
+            bulk.find(query).remove();
+            // a single request, which affects the whole chunk
+            if (execute(bulk, Collections.singletonList(chunk), failures).isEmpty()) {
+                written.addAll(chunk);
+                publish(new AfterDeleteEvent<Bean>(query, beanClass));
+            }
+        }
+    }
+
+    private void commitUpdatedItems(Map<ObjectId, BeanItem<Bean>> updatedItems,
+                                    Map<ObjectId, DBObject> updatedSnapshots,
+                                    List<BulkCommitException.Failure> failures,
+                                    Set<ObjectId> written) {
+        for (List<ObjectId> chunk: chunks(updatedItems.keySet())) {
+            BulkWriteOperation bulk = collection().initializeUnorderedBulkOperation();
+            List<ObjectId> changed = new ArrayList<ObjectId>();
+            Map<ObjectId, DBObject> documents = new HashMap<ObjectId, DBObject>();
+            for (ObjectId id: chunk) {
+                Bean bean = updatedItems.get(id).getBean();
+                DBObject snapshot = updatedSnapshots.get(id);
+                // untouched items cost nothing, not even their events
+                // (e.g., auditing would always mark them as changed)
+                if (DocumentDiff.isEmpty(DocumentDiff.updateOf(snapshot, toDBObject(bean)))) {
+                    written.add(id);
+                    continue;
+                }
+
+                publish(new BeforeConvertEvent<Bean>(bean));
+                DBObject document = toDBObject(bean);
+                publish(new BeforeSaveEvent<Bean>(bean, document));
+                DBObject update = DocumentDiff.updateOf(snapshot, document);
+
+                if (versionProperty != null) {
+                    if (updateVersioned(id, bean, snapshot, update, failures)) {
+                        written.add(id);
+                        publish(new AfterSaveEvent<Bean>(bean, document));
+                    }
+                    continue;
+                }
+                bulk.find(new BasicDBObject(ID, id)).updateOne(update);
+                changed.add(id);
+                documents.put(id, document);
+            }
+            if (changed.isEmpty()) continue;
+
+            Set<ObjectId> failed = execute(bulk, singletons(changed), failures);
+            for (ObjectId id: changed) {
+                if (!failed.contains(id)) written.add(id);
+            }
+            for (ObjectId id: changed) {
+                if (!failed.contains(id))
+                    publish(new AfterSaveEvent<Bean>(updatedItems.get(id).getBean(), documents.get(id)));
+            }
+        }
+    }
+
+    private void commitNewItems(Map<ObjectId, BeanItem<Bean>> newItems,
+                                List<BulkCommitException.Failure> failures,
+                                Set<ObjectId> written) {
+        for (List<ObjectId> chunk: chunks(newItems.keySet())) {
+            BulkWriteOperation bulk = collection().initializeUnorderedBulkOperation();
+            Map<ObjectId, DBObject> documents = new HashMap<ObjectId, DBObject>();
+            for (ObjectId id: chunk) {
+                Bean bean = newItems.get(id).getBean();
+                if (versionProperty != null && versionOf(bean) == null) setVersion(bean, 0);
+                publish(new BeforeConvertEvent<Bean>(bean));
+                DBObject document = toDBObject(bean);
+                publish(new BeforeSaveEvent<Bean>(bean, document));
+                bulk.insert(document);
+                documents.put(id, document);
+            }
+            Set<ObjectId> failed = execute(bulk, singletons(chunk), failures);
+            for (ObjectId id: chunk) {
+                if (!failed.contains(id)) written.add(id);
+            }
+            for (ObjectId id: chunk) {
+                if (!failed.contains(id))
+                    publish(new AfterSaveEvent<Bean>(newItems.get(id).getBean(), documents.get(id)));
+            }
+        }
     }
 
-    private void commitRemovedItems() {
-        for (ObjectId key: removedItems.keySet()) {
-            Bean bean =  removedItems.get(key).getBean();
-            mongoOps.remove(bean);
+    /**
+     * updates a versioned document on its own, so that a conflict can be told apart:
+     * the update only applies to the version that the snapshot was read with,
+     * and increments it, both in the document and in the bean
+     *
+     * @return true if the document has been updated
+     */
+    private boolean updateVersioned(ObjectId id, Bean bean, DBObject snapshot, DBObject update,
+                                    List<BulkCommitException.Failure> failures) {
+        String field = versionProperty.getFieldName();
+        Object version = snapshot.get(field);
+
+        // the version is incremented, never set
+        for (String operator: Arrays.asList("$set", "$unset")) {
+            DBObject fields = (DBObject) update.get(operator);
+            if (fields == null) continue;
+            fields.removeField(field);
+            if (fields.keySet().isEmpty()) update.removeField(operator);
         }
+        update.put("$inc", new BasicDBObject(field, 1));
+
+        try {
+            DBObject filter = new BasicDBObject(ID, id).append(field, version);
+            if (collection().update(filter, update).getN() == 0) {
+                failures.add(new BulkCommitException.Failure(Collections.singletonList(id), -1,
+                        "document " + id + " has been changed or removed since version " + version));
+                return false;
+            }
+        } catch (MongoException ex) {
+            failures.add(new BulkCommitException.Failure(
+                    Collections.singletonList(id), ex.getCode(), ex.getMessage()));
+            return false;
+        }
+
+        // a missing version is incremented to 1
+        setVersion(bean, version == null? 1 : ((Number) version).longValue() + 1);
+        return true;
+    }
+
+    @Nullable
+    private Object versionOf(Bean bean) {
+        return persistentEntity.getPropertyAccessor(bean).getProperty(versionProperty);
+    }
+
+    private void setVersion(Bean bean, long version) {
+        Object value = mongoOps.getConverter().getConversionService().convert(version, versionProperty.getType());
+        persistentEntity.getPropertyAccessor(bean).setProperty(versionProperty, value);
     }
 
-    private void commitUpdatedItems() {
-        for (ObjectId key: updatedItems.keySet()) {
-            Bean bean = updatedItems.get(key).getBean();
-            mongoOps.save(bean);
+    private void publish(ApplicationEvent event) {
+        if (eventPublisher != null) eventPublisher.publishEvent(event);
+    }
+
+    /**
+     * @return the document that the mapping layer would write for the given bean
+     */
+    protected DBObject toDBObject(Bean bean) {
+        DBObject document = new BasicDBObject();
+        mongoOps.getConverter().write(bean, document);
+        return document;
+    }
+
+    /**
+     * executes the given bulk operation, adding a failure for each request that fails
+     *
+     * @param affectedIds the ids affected by each request of the bulk operation, in order
+     * @return the ids affected by the failed requests
+     */
+    private Set<ObjectId> execute(BulkWriteOperation bulk, List<List<ObjectId>> affectedIds,
+                                  List<BulkCommitException.Failure> failures) {
+        Set<ObjectId> failed = new HashSet<ObjectId>();
+        try {
+            bulk.execute();
+        } catch (BulkWriteException ex) {
+            for (BulkWriteError error: ex.getWriteErrors()) {
+                List<ObjectId> ids = affectedIds.get(error.getIndex());
+                failures.add(new BulkCommitException.Failure(ids, error.getCode(), error.getMessage()));
+                failed.addAll(ids);
+            }
+            if (ex.getWriteConcernError() != null) {
+                // the writes were applied, but they may not be durable
+                log.warning("write concern error on commit: " + ex.getWriteConcernError());
+            }
+        } catch (MongoException ex) {
+            // nothing is known about the outcome: report the whole chunk
+            List<ObjectId> ids = flatten(affectedIds);
+            failures.add(new BulkCommitException.Failure(ids, ex.getCode(), ex.getMessage()));
+            failed.addAll(ids);
         }
+        return failed;
     }
 
-    private void commitNewItems() {
-        for (ObjectId key: newItems.keySet()) {
-            Bean bean = newItems.get(key).getBean();
-            mongoOps.insert(bean);
+    private List<List<ObjectId>> chunks(Collection<ObjectId> ids) {
+        List<ObjectId> all = new ArrayList<ObjectId>(ids);
+        List<List<ObjectId>> chunks = new ArrayList<List<ObjectId>>();
+        for (int i = 0; i < all.size(); i += commitChunkSize) {
+            chunks.add(all.subList(i, Math.min(i + commitChunkSize, all.size())));
         }
+        return chunks;
+    }
+
+    private static List<List<ObjectId>> singletons(List<ObjectId> ids) {
+        List<List<ObjectId>> result = new ArrayList<List<ObjectId>>(ids.size());
+        for (ObjectId id: ids) result.add(Collections.singletonList(id));
+        return result;
+    }
+
+    private static List<ObjectId> flatten(List<List<ObjectId>> lists) {
+        List<ObjectId> result = new ArrayList<ObjectId>();
+        for (List<ObjectId> l: lists) result.addAll(l);
+        return result;
     }
 
     @Override
     public void discard() throws SourceException {
+        // changes that fail to commit are restored: wait for the commit to complete
+        commitLock.lock();
         try {
-            discardNewItems();
-            discardUpdatedItems();
-            discardRemovedItems();
-            clearBuffers();
-            fireItemSetChange();
-        } catch (RuntimeException ex) {
-            throw new SourceException(this, ex);
+            bufferLock.writeLock().lock();
+            try {
+                discardNewItems();
+                discardUpdatedItems();
+                discardRemovedItems();
+                clearBuffers();
+            } catch (RuntimeException ex) {
+                throw new SourceException(this, ex);
+            } finally {
+                bufferLock.writeLock().unlock();
+            }
+        } finally {
+            commitLock.unlock();
         }
+        fireItemSetChange();
     }
 
     private void discardRemovedItems() {
@@ -101,6 +716,7 @@ public class BufferedMongoContainer<Bean> extends MongoContainer<Bean>
 
     private void discardUpdatedItems() {
         updatedItems.clear();
+        updatedSnapshots.clear();
     }
 
     private void discardNewItems() {
@@ -118,65 +734,135 @@ public class BufferedMongoContainer<Bean> extends MongoContainer<Bean>
 
     @Override
     public boolean isModified() {
-        return !newItems.isEmpty()
-               || !updatedItems.isEmpty()
-               || !removedItems.isEmpty();
+        bufferLock.readLock().lock();
+        try {
+            return !newItems.isEmpty()
+                   || !updatedItems.isEmpty()
+                   || !removedItems.isEmpty();
+        } finally {
+            bufferLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * background fetches would not see the pending changes
+     */
+    @Override
+    protected boolean canReadAhead() {
+        return false;
+    }
+
+    /**
+     * pending new and removed items are not visible to the query,
+     * so while they exist neighbors can only be found by position
+     */
+    @Override
+    protected boolean canSeek() {
+        bufferLock.readLock().lock();
+        try {
+            return newItems.isEmpty() && removedItems.isEmpty();
+        } finally {
+            bufferLock.readLock().unlock();
+        }
     }
 
     @Override
     public BeanItem<Bean> getItem(Object itemId) {
-        ObjectId id = assertIdValid(itemId);
-
-        // if the internal buffers are not empty,
-        // first check there
-        if (this.isModified()) {
-            for (LinkedHashMap<ObjectId, BeanItem<Bean>> temporaryStorage :
-                    Arrays.asList(newItems, updatedItems)) {
-                if (temporaryStorage.containsKey(id))
-                    return temporaryStorage.get(id);
+        bufferLock.readLock().lock();
+        try {
+            ObjectId id = assertIdValid(itemId);
+
+            // if the internal buffers are not empty,
+            // first check there
+            if (this.isModified()) {
+                for (LinkedHashMap<ObjectId, BeanItem<Bean>> temporaryStorage :
+                        Arrays.asList(newItems, updatedItems)) {
+                    if (temporaryStorage.containsKey(id))
+                        return temporaryStorage.get(id);
+                }
+                // if removed, it should return null
+                // as the id would not found in the collection
+                if (removedItems.containsKey(itemId)) return null;
             }
-            // if removed, it should return null
-            // as the id would not found in the collection
-            if (removedItems.containsKey(itemId)) return null;
+
+            // otherwise, just return the item with the usual strategy
+            return super.getItem(itemId);
+        } finally {
+            bufferLock.readLock().unlock();
         }
+    }
+
+    @Override
+    public Map<ObjectId, BeanItem<Bean>> getItems(Collection<ObjectId> itemIds) {
+        bufferLock.readLock().lock();
+        try {
+            if (!this.isModified()) return super.getItems(itemIds);
 
-        // otherwise, just return the item with the usual strategy
-        return super.getItem(itemId);
+            Map<ObjectId, BeanItem<Bean>> result = new LinkedHashMap<ObjectId, BeanItem<Bean>>();
+            List<ObjectId> stored = new ArrayList<ObjectId>();
+            for (ObjectId id: itemIds) {
+                if (removedItems.containsKey(id)) continue;
+                // keep a slot, so that the result preserves the given order
+                BeanItem<Bean> beanItem = newItems.containsKey(id)?
+                        newItems.get(id) : updatedItems.get(id);
+                result.put(id, beanItem);
+                if (beanItem == null) stored.add(id);
+            }
+
+            result.putAll(super.getItems(stored));
+            result.values().removeAll(Collections.singleton(null));
+            return result;
+        } finally {
+            bufferLock.readLock().unlock();
+        }
     }
 
     @Override
     @Nullable
     public ObjectId getIdByIndex(final int index) {
-        if (index < 0 || this.size() == 0) return null;
+        bufferLock.readLock().lock();
+        try {
+            if (index < 0 || this.size() == 0) return null;
 
-        int actualIndex = index;
+            // new items follow the stored ones
+            int storedSize = storedSize();
+            if (index >= storedSize) {
+                int sequence = liveNewItems.select(index - storedSize);
+                return sequence < 0? null : newItemsBySequence[sequence];
+            }
 
-        if (!removedItems.isEmpty() && index >= removedItemsIndices.first()) {
-            // number of elements to skip
-            int skipElements = removedItemsIndices.subSet(
-                    removedItemsIndices.first(), true,
-                    removedItemsIndices.floor(index), true).size();
-            actualIndex += skipElements;
+            List<ObjectId> ids = storedIdsInRange(index, 1);
+            return ids.isEmpty()? null : ids.get(0);
+        } finally {
+            bufferLock.readLock().unlock();
         }
-
-        DBCursor cur = cursorInRange(actualIndex, 1);
-        return cur.hasNext()?
-                (ObjectId)cur.next().get(ID)
-                : null;
     }
 
     @Override
     public boolean removeItem(Object itemId) throws
             UnsupportedOperationException {
-        if (newItems.containsKey(itemId)) {
-            newItems.remove(itemId);
-        } else {
-            if (updatedItems.containsKey(itemId)) {
-                updatedItems.remove(itemId);
+        bufferLock.writeLock().lock();
+        try {
+            if (newItems.containsKey(itemId)) {
+                newItems.remove(itemId);
+                removeNewItemPosition(itemId);
+            } else {
+                if (updatedItems.containsKey(itemId)) {
+                    updatedItems.remove(itemId);
+                    updatedSnapshots.remove(itemId);
+                }
+                ObjectId oid = assertIdValid(itemId);
+                synchronized (removedPositions) {
+                    rankRemovedPositions();
+                    int index = rankOf(oid);
+                    if (index > -1) removedPositions.add(index);
+                    removedCountQuery = null;
+                }
+                removedItems.put((ObjectId) itemId, super.getItem(itemId));
+                addRemovalExclusion((ObjectId) itemId);
             }
-            int index = super.indexOfId(itemId);
-            removedItems.put((ObjectId) itemId, super.getItem(itemId));
-            removedItemsIndices.add(index);
+        } finally {
+            bufferLock.writeLock().unlock();
         }
         fireItemSetChange();
         return true;
@@ -184,67 +870,113 @@ public class BufferedMongoContainer<Bean> extends MongoContainer<Bean>
 
     @Override
     public int indexOfId(Object itemId) {
-        if (newItems.containsKey(itemId)) {
-            int i = 0;
-            for (ObjectId newId: newItems.keySet()) {
-                if (itemId.equals(newId)) {
-                    return super.size() - removedItems.size() + i;
-                }
-                i++;
+        bufferLock.readLock().lock();
+        try {
+            Integer sequence = newItemSequence.get(itemId);
+            if (sequence != null) {
+                return storedSize() + liveNewItems.countBefore(sequence);
             }
+            if (removedItems.containsKey(itemId)) return -1;
+            if (itemId == null) return -1;
+
+            ObjectId oid = assertIdValid(itemId);
+
+            // pages are already indexed by the position in this view
+            int index = page().indexOf(oid);
+            if (index > -1) return index;
+            index = pageCache.indexOf(oid);
+            if (index > -1) return index;
+
+            // otherwise, translate the position in the collection
+            // by discounting the items removed before it
+            int rank = rankOf(oid);
+            if (rank < 0) return -1;
+            synchronized (removedPositions) {
+                rankRemovedPositions();
+                return rank - removedPositions.countBefore(rank);
+            }
+        } finally {
+            bufferLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * ranks the removed items again if the query has changed since they were ranked,
+     * e.g., the sort order or the filters.
+     * To be called holding the monitor of {@link #removedPositions}
+     */
+    private void rankRemovedPositions() {
+        CompiledQuery q = compiledQuery();
+        if (q == removedPositionsQuery) return;
+
+        removedPositions.clear();
+        for (ObjectId id: removedItems.keySet()) {
+            int index = rankOf(id);
+            if (index > -1) removedPositions.add(index);
         }
-        if (removedItems.containsKey(itemId)) return -1;
-        return super.indexOfId(itemId);
+        // if the query has changed meanwhile, they will be ranked again
+        removedPositionsQuery = q;
     }
 
     @Override
     public boolean containsId(Object itemId) {
-        if (removedItems.containsKey(itemId)) return false;
-        else if (newItems.containsKey(itemId)) return true;
-        else return super.containsId(itemId);
+        bufferLock.readLock().lock();
+        try {
+            if (removedItems.containsKey(itemId)) return false;
+            else if (newItems.containsKey(itemId)) return true;
+            else return super.containsId(itemId);
+        } finally {
+            bufferLock.readLock().unlock();
+        }
     }
 
     @Override
     public int size() {
-        int actualSize = super.size();
-        if (newItems.isEmpty() && removedItems.isEmpty()) return actualSize;
-        else return actualSize + newItems.size() - removedItems.size();
+        bufferLock.readLock().lock();
+        try {
+            return storedSize() + newItems.size();
+        } finally {
+            bufferLock.readLock().unlock();
+        }
     }
 
     @Override
-    protected void fetchPage(int offset, int pageSize) {
-
-        // we'll have to skip N = removedItems.size()
-        // so, ensure to get enough elements
-        // by fetching pageSize + removedItems.size()
-        DBCursor cursor = cursorInRange(offset, pageSize + removedItems.size());
-
-        // the page size does not change, though
-        Page<ObjectId> newPage = new Page<ObjectId>(pageSize, offset, this.size());
-
-        // stop when cursor has reached the end OR index >= newPage.maxIndex,
-        // whichever occurs first
-        int index = offset;
-        for (   ; cursor.hasNext() && index < newPage.maxIndex; ) {
-            ObjectId objectId = (ObjectId) cursor.next().get(ID);
-            // if the element has been scheduled for removal, skip it
-            if (removedItems.containsKey(objectId)) continue;
-            newPage.set(index, objectId);
-            index++;
-        }
-
-        // if there is still space left in the page,
-        // fill it with elements from addedItems
-        if ( ( newPage.maxIndex >= super.size() - removedItems.size() )
-                && index < newPage.maxIndex) {
-            for (ObjectId objectId: newItems.keySet()) {
+    protected Page<ObjectId> fetchPage(int offset, int pageSize) {
+        final int expectedGeneration = generation();
+        bufferLock.readLock().lock();
+        try {
+            Page<ObjectId> newPage = new ObjectIdPage(pageSize, offset, this.size());
+
+            // the removed items are excluded by the query itself
+            int index = offset;
+            for (ObjectId objectId: storedIdsInRange(offset, pageSize)) {
                 if (index >= newPage.maxIndex) break;
                 newPage.set(index, objectId);
                 index++;
             }
-        }
 
-        this.page = newPage;
+            // if there is still space left in the page,
+            // fill it with elements from addedItems,
+            // starting from the first one that falls in the page
+            int storedSize = storedSize();
+            if (newPage.maxIndex >= storedSize && index < newPage.maxIndex) {
+                for (int n = Math.max(0, index - storedSize); index < newPage.maxIndex; n++) {
+                    int sequence = liveNewItems.select(n);
+                    if (sequence < 0) break;
+                    newPage.set(index, newItemsBySequence[sequence]);
+                    index++;
+                }
+            }
+
+            if (!publishPage(newPage, expectedGeneration)) return newPage;
+
+            List<ObjectId> storedIds = new ArrayList<ObjectId>(newPage.toImmutableList());
+            storedIds.removeAll(newItems.keySet());
+            prefetchItems(storedIds);
+            return newPage;
+        } finally {
+            bufferLock.readLock().unlock();
+        }
     }
 
     /**
@@ -257,24 +989,44 @@ public class BufferedMongoContainer<Bean> extends MongoContainer<Bean>
      * @return the item that will be updated
      */
     public BeanItem<Bean> updateItem(ObjectId itemId) {
+        bufferLock.writeLock().lock();
+        try {
+            if (this.removedItems.containsKey(itemId))
+                throw new IllegalArgumentException("item "+itemId+" was removed");
+            // keep the first snapshot: the item may have been changed since
+            if (this.updatedItems.containsKey(itemId)) return this.updatedItems.get(itemId);
+            if (!this.newItems.containsKey(itemId)) {
+                if (!this.containsId(itemId)) {
+                    throw new IllegalArgumentException("item " + itemId + " was removed");
+                }
 
-        if (this.removedItems.containsKey(itemId))
-            throw new IllegalArgumentException("item "+itemId+" was removed");
-        if (!this.newItems.containsKey(itemId)) {
-            if (!this.containsId(itemId)) {
-                throw new IllegalArgumentException("item " + itemId + " was removed");
-            }
+                invalidatePages();
 
-            page.setInvalid();
+                // the cached item may have been edited already (e.g., by an editable Table):
+                // the changed fields are told apart from the stored document
+                Bean stored = mongoOps.findById(itemId, beanClass);
+                if (stored == null) {
+                    throw new IllegalArgumentException("item " + itemId + " was removed");
+                }
+                DBObject snapshot = toDBObject(stored);
 
-            BeanItem<Bean> updatedItem = getItem(itemId);
-            this.updatedItems.put(itemId, updatedItem);
+                // changes are found by comparing whole documents:
+                // a projected item would unset the fields it lacks
+                BeanItem<Bean> updatedItem = projection == null?
+                        getItem(itemId)
+                      : makeBeanItem(stored);
+                itemCache.put(itemId, updatedItem);
+                this.updatedItems.put(itemId, updatedItem);
+                this.updatedSnapshots.put(itemId, snapshot);
 
-            return updatedItem;
-        } else {
-            return this.newItems.get(itemId);
-        }
+                return updatedItem;
+            } else {
+                return this.newItems.get(itemId);
+            }
 
+        } finally {
+            bufferLock.writeLock().unlock();
+        }
     }
 
     @Override
@@ -305,7 +1057,13 @@ public class BufferedMongoContainer<Bean> extends MongoContainer<Bean>
             beanItem.addNestedProperty(nestedProp);
 
         ObjectId id = beanFactory.injectId(target);
-        newItems.put(id, beanItem);
+        bufferLock.writeLock().lock();
+        try {
+            newItems.put(id, beanItem);
+            addNewItemPosition(id);
+        } finally {
+            bufferLock.writeLock().unlock();
+        }
         fireItemSetChange();
         return id;
     }
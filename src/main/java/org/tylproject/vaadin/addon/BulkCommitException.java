@@ -0,0 +1,95 @@
+/**
+ * Copyright (c) 2014 - Tyl Consulting s.a.s.
+ *
+ *    Authors: Edoardo Vacchi
+ *    Contributors: Marco Pancotti, Daniele Zonca
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.tylproject.vaadin.addon;
+
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Thrown (as the cause of a {@link com.vaadin.data.Buffered.SourceException})
+ * when some of the changes of a {@link org.tylproject.vaadin.addon.BufferedMongoContainer}
+ * could not be committed.
+ *
+ * The other changes have been written: only the failed ones are still pending,
+ * so that they can be fixed and committed again, or discarded.
+ */
+public class BulkCommitException extends RuntimeException {
+
+    /**
+     * a write that failed, and the items it affected
+     */
+    public static class Failure {
+        private final List<ObjectId> itemIds;
+        private final int code;
+        private final String message;
+
+        public Failure(List<ObjectId> itemIds, int code, String message) {
+            this.itemIds = Collections.unmodifiableList(new ArrayList<ObjectId>(itemIds));
+            this.code = code;
+            this.message = message;
+        }
+
+        public List<ObjectId> getItemIds() {
+            return itemIds;
+        }
+
+        /**
+         * @return the error code reported by the server, or -1 if unknown
+         */
+        public int getCode() {
+            return code;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s (code %d): %s", itemIds, code, message);
+        }
+    }
+
+    private final List<Failure> failures;
+
+    public BulkCommitException(List<Failure> failures) {
+        super(failures.size() + " write(s) failed, first: " + failures.get(0));
+        this.failures = Collections.unmodifiableList(new ArrayList<Failure>(failures));
+    }
+
+    public List<Failure> getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return the ids of all the items whose changes are still pending
+     */
+    public Set<ObjectId> getFailedItemIds() {
+        Set<ObjectId> ids = new LinkedHashSet<ObjectId>();
+        for (Failure f: failures) ids.addAll(f.getItemIds());
+        return ids;
+    }
+}
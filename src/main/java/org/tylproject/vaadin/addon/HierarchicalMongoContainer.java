@@ -6,6 +6,7 @@ import com.mongodb.DBObject;
 import com.vaadin.data.Container;
 import org.bson.types.ObjectId;
 import org.springframework.data.mongodb.core.query.Query;
+import org.tylproject.vaadin.addon.utils.CompiledQuery;
 
 import java.util.*;
 
@@ -17,8 +18,8 @@ import static org.springframework.data.mongodb.core.query.Criteria.where;
 public class HierarchicalMongoContainer<Bean> extends MongoContainer<Bean> implements Container.Hierarchical {
 
     private final String parentProperty;
-    private Object lastRequestedItemId;
-    private Collection<ObjectId> lastRequestedChildren;
+    private volatile Object lastRequestedItemId;
+    private volatile Collection<ObjectId> lastRequestedChildren;
 
 
     public HierarchicalMongoContainer(Builder<Bean> bldr) {
@@ -27,6 +28,30 @@ public class HierarchicalMongoContainer<Bean> extends MongoContainer<Bean> imple
 
     }
 
+    @Override
+    protected void invalidatePages() {
+        super.invalidatePages();
+        // the children may have changed, too
+        lastRequestedItemId = null;
+        lastRequestedChildren = null;
+    }
+
+    @Override
+    protected Set<String> queryFields(CompiledQuery q) {
+        Set<String> fields = super.queryFields(q);
+        if (fields == null) return null;
+        // re-parenting a node moves it within the hierarchy
+        fields = new HashSet<String>(fields);
+        fields.add(parentProperty);
+        return fields;
+    }
+
+    @Override
+    protected boolean isCached(ObjectId id) {
+        Collection<ObjectId> children = lastRequestedChildren;
+        return super.isCached(id) || (children != null && children.contains(id));
+    }
+
     @Override
     public boolean areChildrenAllowed(Object itemId) {
         return getChildren(itemId).size() > 0;
@@ -36,9 +61,9 @@ public class HierarchicalMongoContainer<Bean> extends MongoContainer<Bean> imple
     public Collection<ObjectId> getChildren(Object itemId) {
         assertIdValid(itemId);
 
-        if (lastRequestedItemId == itemId) return lastRequestedChildren;
-
-        lastRequestedItemId = itemId;
+        // they may be dropped meanwhile by a change of another client
+        Collection<ObjectId> children = lastRequestedChildren;
+        if (lastRequestedItemId == itemId && children != null) return children;
 
         DBObject parentCriteria = new BasicDBObject();
         parentCriteria.put(parentProperty, itemId);
@@ -50,6 +75,7 @@ public class HierarchicalMongoContainer<Bean> extends MongoContainer<Bean> imple
         }
 
         lastRequestedChildren = ids;
+        lastRequestedItemId = itemId;
 
         return ids;
     }
@@ -93,7 +119,6 @@ public class HierarchicalMongoContainer<Bean> extends MongoContainer<Bean> imple
 
     @Override
     public boolean hasChildren(Object itemId) {
-        if (lastRequestedItemId == itemId) return lastRequestedChildren.size() > 0;
-        else return getChildren(itemId).size() > 0;
+        return getChildren(itemId).size() > 0;
     }
 }
@@ -30,21 +30,51 @@ import com.vaadin.data.util.AbstractContainer;
 import com.vaadin.data.util.BeanItem;
 import com.vaadin.data.util.filter.UnsupportedFilterException;
 import org.springframework.beans.BeanUtils;
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.PropertyAccessorFactory;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Sort;
 import org.tylproject.vaadin.addon.beanfactory.BeanFactory;
 import org.tylproject.vaadin.addon.beanfactory.DefaultBeanFactory;
+import org.tylproject.vaadin.addon.changefeed.ChangeEvent;
+import org.tylproject.vaadin.addon.changefeed.ChangeFeed;
+import org.tylproject.vaadin.addon.utils.AdaptivePageSize;
+import org.tylproject.vaadin.addon.utils.CompiledQuery;
+import org.tylproject.vaadin.addon.utils.CountCache;
 import org.tylproject.vaadin.addon.utils.DefaultFilterConverter;
 import org.tylproject.vaadin.addon.utils.FilterConverter;
+import org.tylproject.vaadin.addon.utils.IdSnapshot;
+import org.tylproject.vaadin.addon.utils.IndexAdvisor;
+import org.tylproject.vaadin.addon.utils.ItemCache;
+import org.tylproject.vaadin.addon.utils.ObjectIdPage;
 import org.tylproject.vaadin.addon.utils.Page;
+import org.tylproject.vaadin.addon.utils.PageCache;
+import org.tylproject.vaadin.addon.utils.ProjectedBeans;
+import org.tylproject.vaadin.addon.utils.SizeStrategies;
+import org.tylproject.vaadin.addon.utils.SizeStrategy;
+import org.tylproject.vaadin.addon.utils.SortKeys;
 import org.bson.types.ObjectId;
 import org.springframework.data.mongodb.core.MongoOperations;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.beans.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import static org.springframework.data.mongodb.core.query.Criteria.where;
@@ -90,6 +120,11 @@ public class MongoContainer<Bean>
     public static class Builder<BT> {
 
         private final static int DEFAULT_PAGE_SIZE = 100;
+        private final static int DEFAULT_PAGE_CACHE_SIZE = 4;
+        private final static int ITEM_CACHE_SIZE_OF_PAGES = -1;
+        private final static long NO_SEQUENTIAL_CURSOR = -1;
+        private final static int DEFAULT_COMMIT_CHUNK_SIZE = 1000;
+        private final static int DEFAULT_REMOVAL_EXCLUSION_THRESHOLD = 1000;
 
 
         private final MongoOperations mongoOps;
@@ -97,6 +132,9 @@ public class MongoContainer<Bean>
         private final Class<BT> beanClass;
         private Sort sort;
         private int pageSize = DEFAULT_PAGE_SIZE;
+        private int pageCacheSize = DEFAULT_PAGE_CACHE_SIZE;
+        private int minPageSize;
+        private int maxPageSize;
         private Map<String, Class<?>> simpleProperties = new LinkedHashMap<String, Class<?>>();
         private Map<String, Class<?>> nestedProperties = new LinkedHashMap<String, Class<?>>();
 
@@ -104,6 +142,22 @@ public class MongoContainer<Bean>
         private boolean hasNestedPropertyList = false;
         private BeanFactory<BT> beanFactory ;
         private FilterConverter filterConverter = new DefaultFilterConverter();
+        private long countCacheTtl = CountCache.NO_TTL;
+        private boolean keysetPagination = false;
+        private int itemCacheSize = ITEM_CACHE_SIZE_OF_PAGES;
+        private boolean softItemCache = false;
+        private long itemCacheTtl = ItemCache.NO_TTL;
+        private Executor readAheadExecutor;
+        private long sequentialCursorTimeout = NO_SEQUENTIAL_CURSOR;
+        private SizeStrategy sizeStrategy = SizeStrategies.exact();
+        private final List<IndexAdvisor.Listener> indexAdvisorListeners = new ArrayList<IndexAdvisor.Listener>();
+        private boolean ensureIndexes = false;
+        private IdSnapshot.Storage idSnapshotStorage;
+        private ChangeFeed changeFeed;
+        private Executor changeDispatcher;
+        int commitChunkSize = DEFAULT_COMMIT_CHUNK_SIZE;
+        int removalExclusionThreshold = DEFAULT_REMOVAL_EXCLUSION_THRESHOLD;
+        ApplicationEventPublisher eventPublisher;
         public String parentProperty;
 
         /**
@@ -158,6 +212,118 @@ public class MongoContainer<Bean>
             return this;
         }
 
+        /**
+         * fetch pages by seeking from the sort key of an adjacent page
+         * instead of skipping all the preceding documents.
+         *
+         * In this mode page queries only project the sort fields,
+         * so that they can be covered by an index on the sort fields.
+         * Pages that are not close to the current one are still fetched
+         * using <code>skip()</code>.
+         */
+        public Builder<BT> withKeysetPagination() {
+            this.keysetPagination = true;
+            return this;
+        }
+
+        /**
+         * adapt the page size to the ranges that are requested,
+         * within the given bounds.
+         *
+         * While the requested ranges are contiguous (i.e., the user is scrolling),
+         * the page size grows, so that scrolling costs fewer and larger fetches;
+         * random jumps make it shrink instead. The size given to
+         * {@link #withPageSize(int)} is used until the first decision.
+         * The server cursor batch size follows the page size.
+         *
+         * @see MongoContainer#getAdaptivePageSize()
+         */
+        public Builder<BT> withAdaptivePageSize(final int minPageSize, final int maxPageSize) {
+            this.minPageSize = minPageSize;
+            this.maxPageSize = maxPageSize;
+            return this;
+        }
+
+        /**
+         * specify the maximum number of items that the container keeps in memory.
+         *
+         * Items are cached as they are requested, so that the properties
+         * of a visible row do not cost a query each; the least recently used
+         * items are evicted first. By default, the cache holds as many items
+         * as the cached pages (see {@link #withPageCacheSize(int)}).
+         * A size of 0 disables the cache.
+         *
+         * Cached items are only dropped by the changes that go through the container,
+         * by {@link MongoContainer#refresh()} and {@link MongoContainer#refreshItem(Object)},
+         * or when they expire (see {@link #withItemCacheTtl(long, java.util.concurrent.TimeUnit)}).
+         */
+        public Builder<BT> withItemCacheSize(final int itemCacheSize) {
+            this.itemCacheSize = itemCacheSize;
+            return this;
+        }
+
+        /**
+         * bounds the staleness of the cached items: they expire after the given
+         * amount of time, so that writes performed by other clients are eventually
+         * reflected. By default, cached items never expire.
+         */
+        public Builder<BT> withItemCacheTtl(long ttl, TimeUnit unit) {
+            this.itemCacheTtl = unit.toMillis(ttl);
+            return this;
+        }
+
+        /**
+         * let the garbage collector reclaim cached items under memory pressure
+         */
+        public Builder<BT> withSoftItemCache() {
+            this.softItemCache = true;
+            return this;
+        }
+
+        /**
+         * specify the number of pages that the container keeps in memory.
+         *
+         * Ranges that are read again (e.g., when scrolling back and forth)
+         * are served from the cached pages, as long as the container
+         * does not change; the least recently used page is evicted first.
+         */
+        public Builder<BT> withPageCacheSize(final int pageCacheSize) {
+            this.pageCacheSize = pageCacheSize;
+            return this;
+        }
+
+        /**
+         * fetch the next page in the direction of scrolling in the background.
+         *
+         * When the requested ranges move forward (or backward),
+         * the adjacent page and its items are fetched on the given executor
+         * (e.g., a pool, or a thread-per-task executor), and published
+         * into the page cache at the next access to the container,
+         * so that crossing the next page boundary does not wait for the DB.
+         * Read-ahead results are discarded if the container changes
+         * in the meantime. It has no effect on buffered containers.
+         */
+        public Builder<BT> withReadAhead(Executor executor) {
+            this.readAheadExecutor = executor;
+            return this;
+        }
+
+        /**
+         * keep a server cursor open while the container is read forward.
+         *
+         * After each page fetch, the container keeps a cursor positioned
+         * right after the page, with a batch size equal to the page size;
+         * if the next page is requested from there, it is read from the same cursor,
+         * so a long forward scroll costs one query in total.
+         * The cursor is closed when the container changes (e.g., filters or sort),
+         * when another position is requested, or when it has not been used
+         * for the given amount of time.
+         */
+        public Builder<BT> withSequentialCursor(long idleTimeout, TimeUnit unit) {
+            this.sequentialCursorTimeout = unit.toMillis(idleTimeout);
+            return this;
+        }
+
         /**
          * adds a property with the given property id and of the given type
          */
@@ -200,6 +366,152 @@ public class MongoContainer<Bean>
             return this;
         }
 
+        /**
+         * bounds the staleness of the cached {@link MongoContainer#size()}.
+         *
+         * The count is always invalidated by the changes that go through
+         * the container; a time-to-live also makes it expire
+         * after the given amount of time, so that writes performed
+         * by other clients are eventually reflected.
+         * By default, the cached count never expires.
+         */
+        public Builder<BT> withCountCacheTtl(long ttl, TimeUnit unit) {
+            this.countCacheTtl = unit.toMillis(ttl);
+            return this;
+        }
+
+        /**
+         * decides how {@link MongoContainer#size()} is computed;
+         * by default, the matching documents are counted exactly.
+         *
+         * See {@link org.tylproject.vaadin.addon.utils.SizeStrategies}
+         * for bounded, estimated and growing sizes. When the size is not exact
+         * (see {@link MongoContainer#isSizeExact()}), the items beyond it
+         * can still be reached by navigating with nextItemId(), and lastItemId()
+         * still returns the actual last item.
+         *
+         * Note: a {@link org.tylproject.vaadin.addon.BufferedMongoContainer} shows
+         * the items that are pending insertion after the reported size: it should
+         * be used with exact sizes.
+         *
+         * @param sizeStrategy a strategy instance, not shared with other containers
+         */
+        public Builder<BT> withSizeStrategy(SizeStrategy sizeStrategy) {
+            this.sizeStrategy = sizeStrategy;
+            return this;
+        }
+
+        /**
+         * explains each new shape of filter and sort the first time it is used,
+         * and notifies the given listener when the query is not covered by an index,
+         * i.e., when it scans the whole collection or sorts in memory.
+         *
+         * See {@link org.tylproject.vaadin.addon.utils.IndexAdvisor}
+         */
+        public Builder<BT> withIndexAdvisor(IndexAdvisor.Listener listener) {
+            this.indexAdvisorListeners.add(listener);
+            return this;
+        }
+
+        /**
+         * ensures that a compound index exists for each new shape of filter and sort,
+         * on the fields matched by equality, followed by the sort fields.
+         *
+         * Index creation may be expensive on large collections:
+         * this is mostly meant for development environments
+         */
+        public Builder<BT> withIndexProvisioning() {
+            this.ensureIndexes = true;
+            return this;
+        }
+
+        /**
+         * reads all the ids of the current query at once, in order,
+         * into a compact {@link org.tylproject.vaadin.addon.utils.IdSnapshot},
+         * so that size(), getIdByIndex(), indexOfId() and getItemIds()
+         * are answered locally, without skipping or counting on the server.
+         *
+         * The snapshot is read again after every change that goes through
+         * the container, or after {@link MongoContainer#refresh()}.
+         * The size strategy is not used in this mode.
+         * Not supported by buffered containers.
+         *
+         * @param storage where the ids are kept; use
+         *                {@link org.tylproject.vaadin.addon.utils.IdSnapshot.Storage#MAPPED}
+         *                for result sets of millions of rows
+         */
+        public Builder<BT> withIdSnapshot(IdSnapshot.Storage storage) {
+            this.idSnapshotStorage = storage;
+            return this;
+        }
+
+        /**
+         * subscribes the container to the changes of its collection,
+         * e.g., those performed by other clients.
+         *
+         * Only the cached pages, items and counts affected by a change are dropped,
+         * and an ItemSetChangeEvent is fired only when the change affects
+         * the result set of the container.
+         *
+         * Changes are applied to the container through the given dispatcher;
+         * in a Vaadin application, it should run the tasks with <code>UI.access()</code>.
+         * Call {@link MongoContainer#closeChangeFeed()} when the container is no longer used.
+         *
+         * @see org.tylproject.vaadin.addon.changefeed.OplogChangeFeed
+         * @see org.tylproject.vaadin.addon.changefeed.InMemoryChangeFeed
+         */
+        public Builder<BT> withChangeFeed(ChangeFeed changeFeed, Executor dispatcher) {
+            this.changeFeed = changeFeed;
+            this.changeDispatcher = dispatcher;
+            return this;
+        }
+
+
+        /**
+         * specify the maximum number of writes that a buffered container
+         * sends in a single bulk operation on commit (default: 1000)
+         *
+         * @see BufferedMongoContainer#commit()
+         */
+        public Builder<BT> withCommitChunkSize(final int commitChunkSize) {
+            if (commitChunkSize < 1)
+                throw new IllegalArgumentException("commit chunk size must be positive: "+commitChunkSize);
+            this.commitChunkSize = commitChunkSize;
+            return this;
+        }
+
+        /**
+         * publish the mapping events of the entities that a buffered container commits
+         * (<code>BeforeConvertEvent</code>, <code>BeforeSaveEvent</code>, <code>AfterSaveEvent</code>,
+         * <code>BeforeDeleteEvent</code> and <code>AfterDeleteEvent</code>) to the given publisher.
+         *
+         * Commits are written with bulk operations, which bypass the MongoOperations
+         * and their events: pass the ApplicationContext of the MongoTemplate,
+         * so that its listeners (e.g., auditing) still apply.
+         *
+         * @see BufferedMongoContainer#commit()
+         */
+        public Builder<BT> withMappingEvents(ApplicationEventPublisher eventPublisher) {
+            this.eventPublisher = eventPublisher;
+            return this;
+        }
+
+        /**
+         * specify how many pending removals a buffered container excludes
+         * from its queries with a <code>$nin</code> (default: 1000).
+         *
+         * Beyond that, their ids are written to a temporary collection, which is
+         * joined with <code>$lookup</code> (MongoDB 3.2 or later) to exclude them.
+         * It is dropped on commit, discard or {@link BufferedMongoContainer#close()};
+         * if the container is abandoned instead, it is dropped after a day
+         * by the next container of the same collection that creates one.
+         */
+        public Builder<BT> withRemovalExclusionThreshold(final int removalExclusionThreshold) {
+            if (removalExclusionThreshold < 0)
+                throw new IllegalArgumentException("threshold cannot be negative: "+removalExclusionThreshold);
+            this.removalExclusionThreshold = removalExclusionThreshold;
+            return this;
+        }
 
         /**
          * @return a simple MongoContainer instance
@@ -214,11 +526,27 @@ public class MongoContainer<Bean>
          * @return a BufferedMongoContainer instance
          */
         public BufferedMongoContainer<BT> buildBuffered() {
+            if (idSnapshotStorage != null)
+                throw new IllegalStateException("id snapshots are not supported by buffered containers");
             final BufferedMongoContainer<BT> mc = new BufferedMongoContainer<BT>(this);
             mc.fetchPage(0, pageSize);
             return mc;
         }
 
+        /**
+         * @param fetchExecutor runs the queries, e.g. a thread pool
+         * @param dispatcher notifies the listeners once the data has arrived;
+         *                   in a Vaadin application, it should run the tasks with <code>UI.access()</code>
+         * @return an AsyncMongoContainer instance; the first page is fetched in the background
+         */
+        public AsyncMongoContainer<BT> buildAsync(Executor fetchExecutor, Executor dispatcher) {
+            if (idSnapshotStorage != null)
+                throw new IllegalStateException("id snapshots are not supported by async containers");
+            final AsyncMongoContainer<BT> mc = new AsyncMongoContainer<BT>(this, fetchExecutor, dispatcher);
+            mc.requestPage(0, pageSize);
+            return mc;
+        }
+
         public HierarchicalMongoContainer<BT> buildHierarchical(String id) {
             this.parentProperty = id;
             final HierarchicalMongoContainer<BT> mc = new HierarchicalMongoContainer<BT>(this);
@@ -231,21 +559,109 @@ public class MongoContainer<Bean>
     protected static final Logger log = Logger.getLogger("MongoContainer");
 
 
-    @Nonnull protected Page<ObjectId> page;
+    /**
+     * the most recently fetched page. Pages are never modified once published:
+     * readers on other threads should copy the reference to a local variable
+     * and only use that
+     */
+    @Nonnull protected volatile Page<ObjectId> page;
+    protected final PageCache<ObjectId> pageCache;
     protected final int pageSize;
+    /**
+     * chooses the page size from the requested ranges, or null if the page size is fixed
+     */
+    @Nullable protected final AdaptivePageSize adaptivePageSize;
+    protected final boolean keysetPagination;
+
+    protected final Executor readAheadExecutor;
+    private final AtomicBoolean readAheadInFlight = new AtomicBoolean(false);
+    private final Queue<ReadAhead<Bean>> readAheads = new ConcurrentLinkedQueue<ReadAhead<Bean>>();
+    private volatile int lastRequestedIndex = -1;
+    /**
+     * the page fetches in progress, so that concurrent requests for the same range
+     * wait for a single query (see {@link #fetchPageOnce(int, int)})
+     */
+    private final ConcurrentMap<List<Integer>, FutureTask<Page<ObjectId>>> pageFetches =
+            new ConcurrentHashMap<List<Integer>, FutureTask<Page<ObjectId>>>();
+
+    /**
+     * idle timeout of the sequential cursor in milliseconds, or a negative value if disabled
+     */
+    protected final long sequentialCursorTimeout;
+    private DBCursor sequentialCursor;
+    private int sequentialCursorIndex;
+    private long sequentialCursorLastUsed;
+    /**
+     * incremented each time the cached pages are invalidated,
+     * so that read-ahead results for a previous state can be told apart
+     */
+    private final AtomicInteger generation = new AtomicInteger();
+    /**
+     * guards the publication of pages against a concurrent invalidation,
+     * so that a page queried before it is never cached after it
+     */
+    private final Object pageLock = new Object();
 
 
     protected final Criteria criteria;
     /**
      * criteria updated by {@link #addContainerFilter(com.vaadin.data.Container.Filter)}
      */
-    protected Query query;
+    protected volatile Query query;
     protected final Query baseQuery;
     protected final Sort baseSort;
-    protected Sort sort;
+    protected volatile Sort sort;
     protected final FilterConverter filterConverter;
-    protected final List<Filter> appliedFilters = new ArrayList<Filter>();
-    protected final List<Criteria> appliedCriteria = new ArrayList<Criteria>();
+    protected final List<Filter> appliedFilters = new CopyOnWriteArrayList<Filter>();
+    protected final List<Criteria> appliedCriteria = new CopyOnWriteArrayList<Criteria>();
+    /**
+     * guards the updates of {@link #query}, {@link #sort}, the applied filters
+     * and {@link #compiledQuery}, so that they always change together
+     */
+    protected final Object queryLock = new Object();
+
+    /**
+     * the rendered form of {@link #query}; null when it must be compiled again
+     */
+    @Nullable private volatile CompiledQuery compiledQuery;
+    @Nullable private volatile DBCollection dbCollection;
+
+    /**
+     * nesting level of {@link #batchUpdate(Runnable)}, and whether
+     * an ItemSetChangeEvent has been deferred until its end
+     */
+    private int batchDepth = 0;
+    private boolean pendingItemSetChange = false;
+
+    /**
+     * caches the result of {@link #size()} for the current query
+     */
+    protected final CountCache countCache;
+    protected final SizeStrategy sizeStrategy;
+    @Nullable protected final IndexAdvisor indexAdvisor;
+
+    /**
+     * where the ids of the query are kept in snapshot mode, or null
+     */
+    @Nullable protected final IdSnapshot.Storage idSnapshotStorage;
+    /**
+     * the ids of the current query, or null if they must be read again
+     */
+    @Nullable protected volatile IdSnapshot idSnapshot;
+    private final Object idSnapshotLock = new Object();
+
+    @Nullable private ChangeFeed.Subscription changeSubscription;
+    /**
+     * the changes received from the feed that have not been applied yet,
+     * and whether a task that applies them has been dispatched
+     */
+    private final Queue<ChangeEvent> pendingChanges = new ConcurrentLinkedQueue<ChangeEvent>();
+    private final AtomicBoolean changesScheduled = new AtomicBoolean(false);
+
+    /**
+     * caches the items returned by {@link #getItem(Object)}
+     */
+    protected final ItemCache<ObjectId, BeanItem<Bean>> itemCache;
 
     protected final MongoOperations mongoOps;
 
@@ -257,6 +673,21 @@ public class MongoContainer<Bean>
 
     protected final List<Object> allProperties;
 
+    /**
+     * the fields fetched for the properties declared through the Builder,
+     * or null if the container exposes all the properties of the bean
+     */
+    @Nullable protected final Set<String> defaultProjection;
+    /**
+     * the fields currently fetched for each document, or null for whole documents
+     */
+    @Nullable protected volatile Set<String> projection;
+    /**
+     * the beans loaded under a projection, so that saving them
+     * does not wipe the fields that were not loaded
+     */
+    protected final ProjectedBeans projectedBeans = new ProjectedBeans();
+
 
     MongoContainer(Builder<Bean> bldr) {
         this.criteria = bldr.mongoCriteria;
@@ -298,7 +729,51 @@ public class MongoContainer<Bean>
         this.allProperties = Collections.unmodifiableList(allProps);
         allProps.addAll(nestedProperties.keySet());
 
+        this.defaultProjection = bldr.hasCustomPropertyList? projectionOf(allProperties) : null;
+        this.projection = defaultProjection;
+
         this.pageSize = bldr.pageSize;
+        this.adaptivePageSize = bldr.maxPageSize > 0?
+                new AdaptivePageSize(bldr.pageSize, bldr.minPageSize, bldr.maxPageSize) : null;
+        this.pageCache = new PageCache<ObjectId>(bldr.pageCacheSize);
+        this.keysetPagination = bldr.keysetPagination;
+        this.readAheadExecutor = bldr.readAheadExecutor;
+        this.sequentialCursorTimeout = bldr.sequentialCursorTimeout;
+        this.countCache = new CountCache(bldr.countCacheTtl);
+        this.sizeStrategy = bldr.sizeStrategy;
+        this.idSnapshotStorage = bldr.idSnapshotStorage;
+        if (bldr.ensureIndexes || !bldr.indexAdvisorListeners.isEmpty()) {
+            this.indexAdvisor = new IndexAdvisor(bldr.ensureIndexes);
+            for (IndexAdvisor.Listener l: bldr.indexAdvisorListeners) indexAdvisor.addListener(l);
+        } else {
+            this.indexAdvisor = null;
+        }
+        this.itemCache = new ItemCache<ObjectId, BeanItem<Bean>>(
+                bldr.itemCacheSize == Builder.ITEM_CACHE_SIZE_OF_PAGES?
+                        Math.max(bldr.pageSize, bldr.maxPageSize) * bldr.pageCacheSize : bldr.itemCacheSize,
+                bldr.softItemCache,
+                bldr.itemCacheTtl);
+
+        if (bldr.changeFeed != null) {
+            final Executor dispatcher = bldr.changeDispatcher;
+            this.changeSubscription = bldr.changeFeed.subscribe(
+                    collection().getFullName(),
+                    new ChangeFeed.Listener() {
+                        @Override
+                        public void onChange(ChangeEvent event) {
+                            pendingChanges.add(event);
+                            // a burst of changes is applied by a single task
+                            if (changesScheduled.compareAndSet(false, true)) {
+                                dispatcher.execute(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        applyPendingChanges();
+                                    }
+                                });
+                            }
+                        }
+                    });
+        }
 
     }
 
@@ -310,79 +785,597 @@ public class MongoContainer<Bean>
     }
 
     /**
-     * @return a cursor with the given optional params
+     * @return a cursor with the given optional params
+     */
+    protected DBCursor cursor(DBObject additionalCriteria) {
+        final CompiledQuery q = compiledQuery();
+        return find(q.and(additionalCriteria), q.getSort());
+    }
+
+    /**
+     * @return a cursor for the given criteria and (optional) sort object,
+     *          projecting only the ids, or the sort keys in keyset mode
+     */
+    protected DBCursor find(DBObject criteriaObject, DBObject sortObject) {
+        DBObject projectionObject =
+                keysetPagination?
+                        SortKeys.projection(sortObject)
+                      : new BasicDBObject(ID, true);
+
+        DBCursor cursor = collection().find(criteriaObject, projectionObject);
+
+        if (sortObject != null) {
+            cursor.sort(sortObject);
+        }
+
+        return cursor;
+    }
+
+    /**
+     * @return the collection of the entity
+     */
+    protected DBCollection collection() {
+        if (dbCollection == null) {
+            String collectionName = mongoOps.getCollectionName(beanClass);
+            dbCollection = mongoOps.getCollection(collectionName);
+        }
+        return dbCollection;
+    }
+
+    /**
+     * @return the current query, rendered against the collection of the entity.
+     *          It is compiled again only after {@link #invalidateCompiledQuery()}
+     */
+    protected CompiledQuery compiledQuery() {
+        CompiledQuery cq = this.compiledQuery;
+        if (cq != null) return cq;
+
+        synchronized (queryLock) {
+            if (compiledQuery != null) return compiledQuery;
+            cq = compiledQuery = CompiledQuery.compile(query, collection());
+        }
+        // explaining costs a round-trip: do not hold the lock meanwhile
+        if (indexAdvisor != null) indexAdvisor.advise(cq);
+        return cq;
+    }
+
+    /**
+     * runs explain on the current query, e.g. to assert in a test
+     * that a given configuration of the container is covered by an index:
+     * <pre>
+     *     IndexAdvisor.assertCovered(container.explainQuery());
+     * </pre>
+     */
+    public IndexAdvisor.Advice explainQuery() {
+        return IndexAdvisor.explain(compiledQuery());
+    }
+
+    /**
+     * must be called whenever {@link #query} is replaced or modified
+     */
+    protected void invalidateCompiledQuery() {
+        synchronized (queryLock) {
+            this.compiledQuery = null;
+        }
+    }
+
+    /**
+     * @return the sort object for the current query.
+     *          The order is always made total by an <code>_id</code> tie-break,
+     *          so that the position of each document is well-defined
+     */
+    protected DBObject sortObject() {
+        return compiledQuery().getSort();
+    }
+
+    /**
+     * returns a cursor in the given range.
+     *
+     * shorthand for <pre>
+     *      cursor().skip(skip).limit(limit);
+     * </pre>
+     */
+    protected DBCursor cursorInRange(int skip, int limit) {
+        return cursor().skip(skip).limit(limit);
+    }
+
+    /**
+     * fetches a {@link org.tylproject.vaadin.addon.utils.Page}
+     * within the given range, and makes it the current page
+     *
+     * @return the fetched page
+     */
+    protected Page<ObjectId> fetchPage(int offset, int pageSize) {
+        final int expectedGeneration = generation.get();
+
+        List<DBObject> documents = readSequentially(offset, pageSize);
+        if (documents == null && keysetPagination) {
+            documents = seekRange(offset, pageSize);
+        }
+        if (documents == null) {
+            documents = cursorInRange(offset, pageSize).toArray();
+        }
+
+        sizeRead(offset, pageSize, documents.size());
+        Page<ObjectId> newPage = makePage(documents, offset, pageSize, pageBound(), sortObject());
+        if (!publishPage(newPage, expectedGeneration)) return newPage;
+
+        prepareSequentialCursor(newPage);
+        prefetchItems(newPage.toImmutableList());
+        return newPage;
+    }
+
+    /**
+     * makes the given page the current one and caches it, unless the container
+     * has been invalidated since the page was queried; in that case,
+     * the page is marked invalid, so that it is not used past the current call
+     *
+     * @param expectedGeneration the value of {@link #generation()} before the query
+     * @return true if the page has been published
+     */
+    protected boolean publishPage(Page<ObjectId> newPage, int expectedGeneration) {
+        synchronized (pageLock) {
+            if (generation.get() != expectedGeneration) {
+                newPage.setInvalid();
+                return false;
+            }
+            this.page = newPage;
+            pageCache.put(newPage);
+            return true;
+        }
+    }
+
+    /**
+     * @return a counter that changes whenever the cached pages are invalidated
+     */
+    protected int generation() {
+        return generation.get();
+    }
+
+    /**
+     * like {@link #fetchPage(int, int)}, but if another thread is already
+     * fetching the same range, waits for its result instead of sending
+     * the same query again
+     */
+    protected Page<ObjectId> fetchPageOnce(final int offset, final int pageSize) {
+        List<Integer> key = Arrays.asList(generation.get(), offset, pageSize);
+        FutureTask<Page<ObjectId>> task = new FutureTask<Page<ObjectId>>(new Callable<Page<ObjectId>>() {
+            @Override
+            public Page<ObjectId> call() {
+                return fetchPage(offset, pageSize);
+            }
+        });
+
+        FutureTask<Page<ObjectId>> inFlight = pageFetches.putIfAbsent(key, task);
+        if (inFlight == null) {
+            inFlight = task;
+            try {
+                task.run();
+            } finally {
+                pageFetches.remove(key, task);
+            }
+        }
+
+        try {
+            return inFlight.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for a page", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) throw (RuntimeException) ex.getCause();
+            throw new IllegalStateException(ex.getCause());
+        }
+    }
+
+    /**
+     * reads the given range from the sequential cursor, if it is positioned
+     * at its start; otherwise, the cursor is closed.
+     *
+     * @return the documents in the range, or null if the range
+     *          cannot be read from the sequential cursor
+     */
+    @Nullable
+    protected synchronized List<DBObject> readSequentially(int offset, int limit) {
+        if (sequentialCursor == null) return null;
+
+        if (offset != sequentialCursorIndex
+                || System.currentTimeMillis() - sequentialCursorLastUsed > sequentialCursorTimeout) {
+            closeSequentialCursor();
+            return null;
+        }
+
+        List<DBObject> documents = new ArrayList<DBObject>(limit);
+        while (documents.size() < limit && sequentialCursor.hasNext()) {
+            documents.add(sequentialCursor.next());
+        }
+        sequentialCursorIndex += documents.size();
+        sequentialCursorLastUsed = System.currentTimeMillis();
+
+        return documents;
+    }
+
+    /**
+     * positions the sequential cursor right after the given page,
+     * unless it is already there. The cursor is lazy: no query is sent
+     * until the next page is actually read from it.
+     */
+    protected synchronized void prepareSequentialCursor(Page<ObjectId> page) {
+        if (sequentialCursorTimeout < 0) return;
+        if (sequentialCursor != null && sequentialCursorIndex == page.getEndIndex()) return;
+
+        closeSequentialCursor();
+
+        DBObject sortObject = sortObject();
+        DBCursor cursor;
+        if (SortKeys.isSeekable(page.getLastKey())) {
+            cursor = find(compiledQuery().and(SortKeys.after(sortObject, page.getLastKey())),
+                          sortObject);
+        } else {
+            cursor = cursor().skip(page.getEndIndex());
+        }
+
+        this.sequentialCursor = cursor.batchSize(page.pageSize);
+        this.sequentialCursorIndex = page.getEndIndex();
+        this.sequentialCursorLastUsed = System.currentTimeMillis();
+    }
+
+    protected synchronized void closeSequentialCursor() {
+        if (sequentialCursor == null) return;
+        sequentialCursor.close();
+        sequentialCursor = null;
+    }
+
+    /**
+     * @return a page holding the ids of the given documents,
+     *          in the same order, starting at the given offset
+     */
+    protected Page<ObjectId> makePage(List<DBObject> documents, int offset, int pageSize,
+                                      int collectionSize, DBObject sortObject) {
+        Page<ObjectId> newPage = new ObjectIdPage(pageSize, offset, collectionSize);
+
+        int i = offset;
+        for (DBObject document: documents)
+            newPage.set(i++, (ObjectId) document.get(ID));
+
+        if (keysetPagination && !documents.isEmpty()) {
+            newPage.setSortKeys(
+                    SortKeys.keyOf(documents.get(0), sortObject),
+                    SortKeys.keyOf(documents.get(documents.size() - 1), sortObject));
+        }
+
+        return newPage;
+    }
+
+    /**
+     * @return true if adjacent pages may be fetched in the background
+     */
+    protected boolean canReadAhead() {
+        return readAheadExecutor != null;
+    }
+
+    /**
+     * detects the direction of scrolling from the requested range
+     * and, if the adjacent page is not cached yet, fetches it
+     * in the background (see {@link Builder#withReadAhead(java.util.concurrent.Executor)}).
+     *
+     * Everything the background task needs is captured here, on the calling thread;
+     * the task itself does not touch the state of the container.
+     */
+    protected void scheduleReadAhead(int startIndex, int numberOfItems) {
+        int previousIndex = lastRequestedIndex;
+        lastRequestedIndex = startIndex;
+        if (!canReadAhead() || previousIndex < 0 || previousIndex == startIndex) return;
+
+        final boolean forward = startIndex > previousIndex;
+        final Page<ObjectId> anchor = pageCache.pageContaining(
+                forward? startIndex + numberOfItems - 1 : startIndex);
+        if (anchor == null) return;
+
+        final int size = size();
+        final int bound = pageBound();
+        final int offset = forward? anchor.getEndIndex() : Math.max(0, anchor.offset - anchor.pageSize);
+        final int limit = forward? anchor.pageSize : anchor.offset - offset;
+        if (limit <= 0 || offset >= size || pageCache.pageContaining(offset) != null) return;
+
+        if (!readAheadInFlight.compareAndSet(false, true)) return;
+
+        final int expectedGeneration = this.generation.get();
+        final Set<String> fields = this.projection;
+        final DBObject sortObject = sortObject();
+        final DBObject criteriaObject;
+        final int skip;
+        final boolean backwards;
+        if (forward && SortKeys.isSeekable(anchor.getLastKey())) {
+            criteriaObject = compiledQuery().and(SortKeys.after(sortObject, anchor.getLastKey()));
+            skip = 0;
+            backwards = false;
+        } else if (!forward && SortKeys.isSeekable(anchor.getFirstKey())) {
+            criteriaObject = compiledQuery().and(SortKeys.before(sortObject, anchor.getFirstKey()));
+            skip = 0;
+            backwards = true;
+        } else {
+            criteriaObject = compiledQuery().getFilter();
+            skip = offset;
+            backwards = false;
+        }
+
+        readAheadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    List<DBObject> documents =
+                            find(criteriaObject, backwards? SortKeys.reverse(sortObject) : sortObject)
+                                    .skip(skip).limit(limit).toArray();
+                    if (backwards) Collections.reverse(documents);
+
+                    Page<ObjectId> page = makePage(documents, offset, limit, bound, sortObject);
+                    List<ObjectId> ids = page.toImmutableList();
+                    List<BeanItem<Bean>> items = new ArrayList<BeanItem<Bean>>();
+                    if (itemCache.getMaxSize() > 0 && !ids.isEmpty()) {
+                        Query q = withProjection(Query.query(where(ID).in(ids)), fields);
+                        for (Bean document: mongoOps.find(q, beanClass)) {
+                            if (fields != null) projectedBeans.put(document, fields);
+                            items.add(makeBeanItem(document));
+                        }
+                    }
+
+                    readAheads.add(new ReadAhead<Bean>(expectedGeneration, fields, page, items));
+                } catch (RuntimeException ex) {
+                    log.log(Level.WARNING, "read-ahead failed", ex);
+                } finally {
+                    readAheadInFlight.set(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * moves the completed read-ahead results into the caches,
+     * unless the container has changed since they were scheduled
+     */
+    protected void publishReadAheads() {
+        ReadAhead<Bean> readAhead;
+        while ((readAhead = readAheads.poll()) != null) {
+            Page<ObjectId> p = readAhead.page;
+            synchronized (pageLock) {
+                if (readAhead.generation != this.generation.get()) continue;
+                pageCache.put(p);
+            }
+            sizeRead(p.offset, p.pageSize, p.getEndIndex() - p.offset);
+            // the items may lack some of the fields that are now visible
+            if (readAhead.projection != this.projection) continue;
+            for (BeanItem<Bean> beanItem: readAhead.items) {
+                itemCache.put(beanFactory.getId(beanItem.getBean()), beanItem);
+            }
+        }
+    }
+
+    /**
+     * the result of a background page fetch
+     */
+    private static class ReadAhead<B> {
+        final int generation;
+        final Set<String> projection;
+        final Page<ObjectId> page;
+        final List<BeanItem<B>> items;
+
+        ReadAhead(int generation, Set<String> projection, Page<ObjectId> page, List<BeanItem<B>> items) {
+            this.generation = generation;
+            this.projection = projection;
+            this.page = page;
+            this.items = items;
+        }
+    }
+
+    /**
+     * loads the items with the given ids into the item cache
+     * with a single query, so that rendering them does not cost
+     * a query per item. Does nothing if the item cache is disabled.
+     */
+    protected void prefetchItems(List<ObjectId> itemIds) {
+        int maxSize = itemCache.getMaxSize();
+        if (maxSize == 0) return;
+        // prefetching more than the cache can hold would evict the prefetched items
+        getItems(itemIds.size() > maxSize? itemIds.subList(0, maxSize) : itemIds);
+    }
+
+    /**
+     * fetches the documents in the given range by seeking from the sort keys
+     * of the current page, when the range does not overlap with it.
+     *
+     * The documents between the current page and the range are still
+     * skipped, but this is cheaper than skipping from the beginning
+     * as long as the range is closer to the page than to the start.
+     *
+     * @return the documents in the range, in order, or null if the range
+     *          cannot be reached from the current page
+     */
+    @Nullable
+    protected List<DBObject> seekRange(int offset, int limit) {
+        // find the closest cached page to seek from;
+        // invalid pages are never cached, as their keys may point to a stale position
+        Page<ObjectId> anchor = null;
+        boolean forward = false;
+        // seeking only pays off if it skips less than skipping from the start
+        int minDistance = offset;
+
+        for (Page<ObjectId> p: pageCache.pages()) {
+            int distance = offset - p.getEndIndex();
+            if (distance >= 0 && distance < minDistance && SortKeys.isSeekable(p.getLastKey())) {
+                anchor = p; forward = true; minDistance = distance;
+            }
+            distance = p.offset - (offset + limit);
+            if (distance >= 0 && distance < minDistance && SortKeys.isSeekable(p.getFirstKey())) {
+                anchor = p; forward = false; minDistance = distance;
+            }
+        }
+
+        if (anchor == null) return null;
+
+        final CompiledQuery q = compiledQuery();
+        DBObject sortObject = q.getSort();
+
+        if (forward) {
+            DBObject criteriaObject = q.and(SortKeys.after(sortObject, anchor.getLastKey()));
+            return find(criteriaObject, sortObject)
+                    .skip(minDistance).limit(limit).toArray();
+        } else {
+            // walk backwards from the first element, then restore the order
+            DBObject criteriaObject = q.and(SortKeys.before(sortObject, anchor.getFirstKey()));
+            List<DBObject> documents =
+                    find(criteriaObject, SortKeys.reverse(sortObject))
+                        .skip(minDistance).limit(limit).toArray();
+            Collections.reverse(documents);
+            return documents;
+        }
+    }
+
+    /**
+     * returns the current page and refreshes it when invalid
+     */
+    protected Page<ObjectId> page() {
+        Page<ObjectId> p = this.page;
+        if (!p.isValid()) p = fetchPageOnce(p.offset, p.pageSize);
+        return p;
+    }
+
+    /**
+     * returns the item with the given id from the item cache, loading it if needed.
+     *
+     * The same BeanItem instance is returned as long as it is cached:
+     * edits to its bean that are not saved stay visible until the item is dropped
+     * (see {@link #refreshItem(Object)} and {@link #refresh()}); changes made
+     * by other clients are not seen until then, unless the cache has a time-to-live
+     * (see {@link Builder#withItemCacheTtl(long, java.util.concurrent.TimeUnit)}).
+     */
+    public BeanItem<Bean> getItem(Object o) {
+        if (o == null) return null;
+        ObjectId id = assertIdValid(o);
+
+        publishReadAheads();
+        BeanItem<Bean> beanItem = itemCache.get(id);
+        if (beanItem != null) return beanItem;
+
+        final Bean document = loadDocument(id);
+        // document was not found in the actual DB
+        // but it was in the ID cache
+        // then the cache is invalid
+        final Page<ObjectId> page = this.page;
+        if (document == null && page.contains(o)) {
+            refresh();
+        }
+
+        beanItem = makeBeanItem(document);
+        if (beanItem != null) itemCache.put(id, beanItem);
+        return beanItem;
+    }
+
+    /**
+     * loads all the given items at once.
+     *
+     * Cached items are returned as they are; all the others are fetched
+     * with a single <code>{_id: {$in: [...]}}</code> query and cached.
+     *
+     * @return a map from each id to its item, in the same order as the given ids;
+     *          ids that do not exist in the collection are omitted
      */
-    protected DBCursor cursor(DBObject additionalCriteria) {
-        final Query q = this.query;
-        DBObject criteriaObject = q.getQueryObject();
-        if (additionalCriteria != null) {
-            criteriaObject.putAll(additionalCriteria);
+    public Map<ObjectId, BeanItem<Bean>> getItems(Collection<ObjectId> itemIds) {
+        Map<ObjectId, BeanItem<Bean>> result = new LinkedHashMap<ObjectId, BeanItem<Bean>>();
+        List<ObjectId> missing = new ArrayList<ObjectId>();
+
+        for (ObjectId id: itemIds) {
+            BeanItem<Bean> beanItem = itemCache.get(id);
+            // keep a slot, so that the result preserves the given order
+            result.put(id, beanItem);
+            if (beanItem == null) missing.add(id);
         }
 
-        DBObject projectionObject = new BasicDBObject(ID, true);
-
-        String collectionName = mongoOps.getCollectionName(beanClass);
-        DBCollection dbCollection = mongoOps.getCollection(collectionName);
-
-        // TODO: keep cursor around to possibly reuse
-        DBCursor cursor = dbCollection.find(criteriaObject, projectionObject);
-
-        if (this.baseSort != null || this.sort != null) {
-            DBObject sortObject = q.getSortObject();
-            cursor.sort(sortObject);
+        if (!missing.isEmpty()) {
+            final Set<String> fields = this.projection;
+            Query q = withProjection(Query.query(where(ID).in(missing)), fields);
+            List<Bean> documents = mongoOps.find(q, beanClass);
+            for (Bean document: documents) {
+                if (fields != null) projectedBeans.put(document, fields);
+                BeanItem<Bean> beanItem = makeBeanItem(document);
+                ObjectId id = beanFactory.getId(document);
+                itemCache.put(id, beanItem);
+                result.put(id, beanItem);
+            }
         }
 
-        return cursor;
+        // drop the ids that were not found
+        result.values().removeAll(Collections.singleton(null));
+
+        return result;
     }
 
     /**
-     * returns a cursor in the given range.
-     *
-     * shorthand for <pre>
-     *      cursor().skip(skip).limit(limit);
-     * </pre>
+     * @return the cache for {@link #getItem(Object)}, e.g. to inspect its hit/miss counters
      */
-    protected DBCursor cursorInRange(int skip, int limit) {
-        return cursor().skip(skip).limit(limit);
+    public ItemCache<ObjectId, BeanItem<Bean>> getItemCache() {
+        return itemCache;
     }
 
     /**
-     * fetches a {@link org.tylproject.vaadin.addon.utils.Page}
-     * within the given range
-     *
+     * loads the document with the given id, restricted to the current projection
      */
-    protected void fetchPage(int offset, int pageSize) {
-
-        // TODO: keep cursor around to possibly reuse
-        DBCursor cursor = cursorInRange(offset, pageSize);
-
-        Page<ObjectId> newPage = new Page<ObjectId>(pageSize, offset, this.size());
-
-        for (int i = offset; cursor.hasNext(); i++)
-            newPage.set(i, (ObjectId) cursor.next().get(ID));
+    @Nullable
+    protected Bean loadDocument(ObjectId id) {
+        final Set<String> fields = this.projection;
+        if (fields == null) return mongoOps.findById(id, beanClass);
+        Bean document = mongoOps.findOne(withProjection(Query.query(where(ID).is(id)), fields), beanClass);
+        if (document != null) projectedBeans.put(document, fields);
+        return document;
+    }
 
-        this.page = newPage;
+    /**
+     * restricts the fields returned by the given query to the given set,
+     * unless the set is null
+     */
+    protected Query withProjection(Query q, @Nullable Set<String> fields) {
+        if (fields != null) {
+            for (String field: fields) q.fields().include(field);
+        }
+        return q;
     }
 
     /**
-     * returns the current page and refreshes it when invalid
+     * @return the fields that hold the given property ids;
+     *          for nested properties, the root of the path
      */
-    protected Page<ObjectId> page() {
-        if (!page.isValid()) fetchPage(page.offset, page.pageSize);
-        return page;
+    protected Set<String> projectionOf(Collection<?> propertyIds) {
+        Set<String> fields = new LinkedHashSet<String>();
+        for (Object propertyId: propertyIds) {
+            String path = propertyId.toString();
+            int dot = path.indexOf('.');
+            fields.add(dot < 0? path : path.substring(0, dot));
+        }
+        return Collections.unmodifiableSet(fields);
     }
 
-    public BeanItem<Bean> getItem(Object o) {
-        if (o == null) return null;
-        assertIdValid(o);
-        final Bean document = mongoOps.findById(o, beanClass);
-        // document was not found in the actual DB
-        // but it was in the ID cache
-        // then the cache is invalid
-        if (document == null && page.contains(o)) {
-            refresh();
+    /**
+     * restricts the fields that are fetched for each item
+     * to those that hold the given properties, e.g., the visible columns
+     * of a Table. The other properties of the items will hold
+     * their default value, until the projection is reset.
+     * Saving such items with {@link #addEntity(Object)} only writes the fetched fields.
+     *
+     * @param propertyIds a subset of {@link #getContainerPropertyIds()}, or null
+     *                    to fetch all the properties of the container again
+     * @throws java.lang.IllegalArgumentException if a property id does not belong to the container
+     */
+    public void setVisibleProperties(@Nullable Collection<?> propertyIds) {
+        if (propertyIds == null) {
+            this.projection = defaultProjection;
+        } else {
+            for (Object propertyId: propertyIds) {
+                if (!allProperties.contains(propertyId))
+                    throw new IllegalArgumentException("Cannot find the given propertyId: " + propertyId);
+            }
+            this.projection = projectionOf(propertyIds);
         }
-        return makeBeanItem(document);
+        // cached items may lack the fields that are now visible
+        itemCache.clear();
     }
 
     protected BeanItem<Bean> makeBeanItem(Bean document) {
@@ -425,15 +1418,118 @@ public class MongoContainer<Bean>
         throw new IllegalArgumentException("Cannot find the given propertyId: " + propertyId);
     }
 
+    /**
+     * @return true if the ids are read into a snapshot
+     *          (see {@link Builder#withIdSnapshot(IdSnapshot.Storage)})
+     */
+    protected boolean isSnapshotMode() {
+        return idSnapshotStorage != null;
+    }
+
+    /**
+     * @return the snapshot of the ids of the current query, reading them if needed
+     */
+    protected IdSnapshot idSnapshot() {
+        IdSnapshot snapshot = this.idSnapshot;
+        if (snapshot != null) return snapshot;
+
+        synchronized (idSnapshotLock) {
+            if (idSnapshot != null) return idSnapshot;
+
+            final int expectedGeneration = generation.get();
+            final DBCursor cursor = cursor().batchSize(pageSize);
+            try {
+                snapshot = IdSnapshot.of(new Iterator<ObjectId>() {
+                    @Override
+                    public boolean hasNext() {
+                        return cursor.hasNext();
+                    }
+
+                    @Override
+                    public ObjectId next() {
+                        return (ObjectId) cursor.next().get(ID);
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                }, idSnapshotStorage);
+            } finally {
+                cursor.close();
+            }
+            // the query may have changed while reading: do not keep a stale snapshot
+            synchronized (pageLock) {
+                if (generation.get() == expectedGeneration) idSnapshot = snapshot;
+            }
+        }
+        return snapshot;
+    }
+
     @Override
     public int size() {
-        return (int) mongoOps.count(query, beanClass);
+        if (isSnapshotMode()) return idSnapshot().size();
+
+        String fingerprint = countFingerprint();
+        Long count = countCache.get(fingerprint);
+        if (count == null) {
+            // count with the same filter that the cursors use
+            count = sizeStrategy.size(compiledQuery());
+            countCache.put(fingerprint, count);
+        }
+        return count.intValue();
+    }
+
+    /**
+     * @return true if {@link #size()} is the exact number of items;
+     *          otherwise, it is either a lower bound or an estimate,
+     *          depending on the {@link org.tylproject.vaadin.addon.utils.SizeStrategy}
+     */
+    public boolean isSizeExact() {
+        if (isSnapshotMode()) return true;
+        size();
+        return sizeStrategy.isExact(compiledQuery());
+    }
+
+    /**
+     * @return the collection size to bound the pages with:
+     *          pages may not extend past the end of the collection
+     *          only when its size is known to be exact
+     */
+    protected int pageBound() {
+        int size = size();
+        return isSizeExact()? size : Integer.MAX_VALUE;
+    }
+
+    /**
+     * lets the size strategy know that a range has been read,
+     * dropping the cached size if it changes as a consequence
+     */
+    protected void sizeRead(int offset, int requested, int fetched) {
+        if (sizeStrategy.onRead(compiledQuery(), offset, requested, fetched)) {
+            countCache.invalidate();
+        }
+    }
+
+    /**
+     * @return a key that identifies the result of a count on the current query
+     */
+    protected String countFingerprint() {
+        return compiledQuery().getFingerprint();
+    }
+
+    /**
+     * @return the cache for {@link #size()}, e.g. to inspect its hit/miss counters
+     */
+    public CountCache getCountCache() {
+        return countCache;
     }
 
     @Override
     public boolean containsId(Object itemId) {
         if (itemId == null) return false;
-        assertIdValid(itemId);
+        ObjectId oid = assertIdValid(itemId);
+        if (isSnapshotMode()) return idSnapshot().indexOf(oid) > -1;
         Query q = makeBaseQuery().addCriteria(where(ID).is(itemId));
         return mongoOps.exists(q, beanClass);
     }
@@ -457,20 +1553,41 @@ public class MongoContainer<Bean>
     }
 
     /**
-     * performs an upsert of the given target bean
+     * performs an upsert of the given target bean.
+     *
+     * If the bean has been loaded by this container under a projection
+     * (see {@link #setVisibleProperties(java.util.Collection)}), only the fields
+     * that were loaded are written, as the others do not hold the stored values
      */
     public ObjectId addEntity(Bean target) {
-        mongoOps.save(target);
-        refresh();
+        Set<String> loadedFields = projectedBeans.get(target);
+        if (loadedFields == null) {
+            mongoOps.save(target);
+        } else {
+            Query q = Query.query(where(ID).is(this.beanFactory.getId(target)));
+            mongoOps.updateFirst(q, updateOf(target, loadedFields), beanClass);
+        }
+        // an upsert may overwrite a cached item
+        itemCache.remove(this.beanFactory.getId(target));
         fireItemSetChange();
         return this.beanFactory.getId(target);
     }
 
+    /**
+     * @return an update that sets the given properties of the given bean
+     */
+    protected Update updateOf(Bean bean, Set<String> propertyIds) {
+        BeanWrapper wrapper = PropertyAccessorFactory.forBeanPropertyAccess(bean);
+        Update update = new Update();
+        for (String propertyId: propertyIds) update.set(propertyId, wrapper.getPropertyValue(propertyId));
+        return update;
+    }
+
     @Override
     public boolean removeItem(Object itemId) throws UnsupportedOperationException {
         Query q = makeBaseQuery().addCriteria(where(ID).is(itemId));
         mongoOps.findAndRemove(q, beanClass);
-        refresh();
+        if (itemId instanceof ObjectId) itemCache.remove((ObjectId) itemId);
         fireItemSetChange();
         return true;
     }
@@ -488,7 +1605,7 @@ public class MongoContainer<Bean>
     @Override
     public boolean removeAllItems() throws UnsupportedOperationException {
         mongoOps.remove(this.query, beanClass);
-        refresh();
+        itemCache.clear();
         fireItemSetChange();
         return true;
     }
@@ -498,30 +1615,99 @@ public class MongoContainer<Bean>
         if (itemId == null) return -1;
 
         ObjectId oid = assertIdValid(itemId);
+        if (isSnapshotMode()) return idSnapshot().indexOf(oid);
 
         // for the principle of locality,
         // let us optimistically first check within the page
         int index = page().indexOf(oid);
         if (index > -1) return index;
 
+        // then within the other cached pages
+        index = pageCache.indexOf(oid);
+        if (index > -1) return index;
+
+        return rankOf(oid);
+    }
+
+    /**
+     * computes the position of the given id within the collection
+     * as the number of documents that precede it in the sort order.
+     *
+     * This costs a lookup of the sort key of the document,
+     * and a count that can be answered from the sort index.
+     * If the sort key cannot be used in a range predicate, it falls back
+     * to a linear scan of the ids.
+     *
+     * @return the index of the given id in the collection,
+     *          or -1 if it does not satisfy the current query
+     */
+    protected int rankOf(ObjectId itemId) {
+        Object[] key = sortKeyOf(itemId);
+        if (key == null) return -1;
+
+        if (SortKeys.isSeekable(key)) {
+            CompiledQuery q = compiledQuery();
+            return (int) q.getCollection().count(q.and(SortKeys.before(q.getSort(), key)));
+        }
+
         // otherwise, linearly scan the entire collection using a cursor
         // and only fetch the ids
         DBCursor cur = cursor();
         for (int i = 0; cur.hasNext(); i++) {
-            // skip the check for those already in the page
-            DBObject value = cur.next();
-            if (i >= page.offset && i < page.maxIndex) {
-                continue;
-            }
-            if (value.get(ID).equals(itemId)) return i;
+            if (cur.next().get(ID).equals(itemId)) return i;
         }
         return -1;
     }
 
+    /**
+     * @return the sort key of the given id, or null if it does not satisfy the current query
+     */
+    @Nullable
+    protected Object[] sortKeyOf(ObjectId itemId) {
+        CompiledQuery q = compiledQuery();
+        DBObject sortObject = q.getSort();
+        DBObject idCriteria = q.and(new BasicDBObject(ID, itemId));
+        DBObject document = q.getCollection().findOne(idCriteria, SortKeys.projection(sortObject));
+        return document == null? null : SortKeys.keyOf(document, sortObject);
+    }
+
+    /**
+     * @return the id that immediately follows (or precedes) the document
+     *          with the given sort key, or null if there is none.
+     *          It costs a single query, unless the key is not seekable
+     */
+    @Nullable
+    protected ObjectId seekNeighbor(ObjectId itemId, Object[] key, boolean forward) {
+        if (!SortKeys.isSeekable(key)) {
+            int index = rankOf(itemId);
+            return getIdByIndex(forward? index + 1 : index - 1);
+        }
+
+        DBObject sortObject = sortObject();
+        DBObject criteriaObject = compiledQuery().and(
+                forward? SortKeys.after(sortObject, key) : SortKeys.before(sortObject, key));
+        DBCursor cur = find(criteriaObject,
+                forward? sortObject : SortKeys.reverse(sortObject)).limit(1);
+        return cur.hasNext()?
+                (ObjectId) cur.next().get(ID)
+                : null;
+    }
+
+    /**
+     * @return true if the order of the items is entirely defined by the query,
+     *          so that neighbors can be found by seeking from a sort key
+     *          rather than by position
+     */
+    protected boolean canSeek() {
+        // positions are cheaper than seeks in snapshot mode
+        return !isSnapshotMode();
+    }
+
     @Override
     @Nullable
     public ObjectId getIdByIndex(int index) {
         if (index < 0 || size() == 0) return null;
+        if (isSnapshotMode()) return index < size()? idSnapshot().get(index) : null;
         DBCursor cur = cursorInRange(index, 1);
         return cur.hasNext()?
                 (ObjectId)cur.next().get(ID)
@@ -533,13 +1719,57 @@ public class MongoContainer<Bean>
         //List<BeanId> beans = mongoOps.find(Query.query(criteria).skip(startIndex).limit(numberOfItems), BeanId.class);
         //List<ObjectId> ids = new PropertyList<ObjectId,BeanId>(beans, beanIdDescriptor, "_id");
         log.info(String.format("range: [%d,%d]", startIndex, numberOfItems));
+        if (isSnapshotMode()) {
+            List<ObjectId> ids = idSnapshot().subList(startIndex, numberOfItems);
+            prefetchItems(ids);
+            return ids;
+        }
+        publishReadAheads();
+        int fetchSize = adaptivePageSize == null?
+                numberOfItems : adaptivePageSize.record(startIndex, numberOfItems);
+
+        List<ObjectId> result;
+        final Page<ObjectId> page = this.page;
         if (page.isValid() && page.isWithinRange(startIndex, numberOfItems)) {
-            return page.subList(startIndex, numberOfItems); // return the requested range
+            result = page.subList(startIndex, numberOfItems); // return the requested range
+        } else {
+            result = pageCache.find(startIndex, numberOfItems);
+            if (result == null) {
+                result = fetchRange(startIndex, numberOfItems, fetchSize);
+            }
         }
 
-        fetchPage(startIndex, numberOfItems);
+        scheduleReadAhead(startIndex, numberOfItems);
+        return result;
+    }
+
+    /**
+     * fetches a page of the given size that holds the requested range:
+     * it extends before the range when the user is scrolling backward,
+     * after it otherwise
+     *
+     * @return the ids in the requested range
+     */
+    protected List<ObjectId> fetchRange(int startIndex, int numberOfItems, int fetchSize) {
+        if (fetchSize <= numberOfItems) {
+            return fetchPageOnce(startIndex, numberOfItems).toImmutableList();
+        }
+
+        int offset = adaptivePageSize != null && adaptivePageSize.isBackward()?
+                Math.max(0, startIndex + numberOfItems - fetchSize) : startIndex;
+        Page<ObjectId> p = fetchPageOnce(offset, fetchSize);
+        // the collection may end before the range
+        if (p.getEndIndex() <= startIndex) return Collections.emptyList();
+        return p.subList(startIndex, numberOfItems);
+    }
 
-        return this.page.toImmutableList();
+    /**
+     * @return the decisions taken about the page size, or null
+     *          if the page size is fixed (see {@link Builder#withAdaptivePageSize(int, int)})
+     */
+    @Nullable
+    public AdaptivePageSize getAdaptivePageSize() {
+        return adaptivePageSize;
     }
 
     @Override
@@ -554,41 +1784,113 @@ public class MongoContainer<Bean>
 
     @Override
     public ObjectId nextItemId(Object itemId) {
-        int index = indexOfId(itemId);
-        return getIdByIndex(index+1);
+        if (itemId == null || !canSeek()) {
+            int index = indexOfId(itemId);
+            return getIdByIndex(index+1);
+        }
+
+        ObjectId oid = assertIdValid(itemId);
+
+        // within the page, the neighbor is already known
+        final Page<ObjectId> page = this.page;
+        if (page.isValid()) {
+            int index = page.indexOf(oid);
+            if (index > -1 && index + 1 < page.getEndIndex())
+                return page.get(index + 1);
+            // at the end of the page, seek from its last key
+            if (index > -1 && page.getLastKey() != null)
+                return seekNeighbor(oid, page.getLastKey(), true);
+        }
+
+        Object[] key = sortKeyOf(oid);
+        return key == null? null : seekNeighbor(oid, key, true);
     }
 
     @Override
     public ObjectId prevItemId(Object itemId) {
-        int index = indexOfId(itemId);
-        return getIdByIndex(index - 1);
+        if (itemId == null || !canSeek()) {
+            int index = indexOfId(itemId);
+            return getIdByIndex(index - 1);
+        }
+
+        ObjectId oid = assertIdValid(itemId);
+
+        // within the page, the neighbor is already known
+        final Page<ObjectId> page = this.page;
+        if (page.isValid()) {
+            int index = page.indexOf(oid);
+            if (index > page.offset)
+                return page.get(index - 1);
+            // at the start of the page, seek from its first key
+            if (index == page.offset && page.getFirstKey() != null)
+                return seekNeighbor(oid, page.getFirstKey(), false);
+        }
+
+        Object[] key = sortKeyOf(oid);
+        return key == null? null : seekNeighbor(oid, key, false);
     }
 
     @Override
     public ObjectId firstItemId() {
-        return getIdByIndex(0);
+        if (!canSeek()) return getIdByIndex(0);
+
+        final Page<ObjectId> page = this.page;
+        if (page.isValid() && page.offset == 0)
+            return page.getEndIndex() > 0? page.get(0) : null;
+
+        DBCursor cur = cursor().limit(1);
+        return cur.hasNext()?
+                (ObjectId) cur.next().get(ID)
+                : null;
     }
 
     @Override
     public ObjectId lastItemId() {
-        return size() > 0 ?
-                 getIdByIndex(size()-1)
-               : null;
+        if (!canSeek()) {
+            return size() > 0 ?
+                     getIdByIndex(size()-1)
+                   : null;
+        }
+
+        // read the collection backwards, rather than skipping to the end
+        DBCursor cur = find(compiledQuery().getFilter(), SortKeys.reverse(sortObject())).limit(1);
+        return cur.hasNext()?
+                (ObjectId) cur.next().get(ID)
+                : null;
     }
+
     @Override
     public boolean isFirstId(Object itemId) {
         if (itemId == null) return false;
 
-        assertIdValid(itemId);
-        return itemId.equals(firstItemId());
+        ObjectId oid = assertIdValid(itemId);
+        if (!canSeek()) return itemId.equals(firstItemId());
+
+        final Page<ObjectId> page = this.page;
+        if (page.isValid() && page.offset == 0 && page.getEndIndex() > 0)
+            return oid.equals(page.get(0));
+
+        // it is the first one if it satisfies the query and nothing precedes it
+        Object[] key = sortKeyOf(oid);
+        return key != null && seekNeighbor(oid, key, false) == null;
     }
 
     @Override
     public boolean isLastId(Object itemId) {
         if (itemId == null) return false;
 
-        assertIdValid(itemId);
-        return itemId.equals(lastItemId());
+        ObjectId oid = assertIdValid(itemId);
+        if (!canSeek()) return itemId.equals(lastItemId());
+
+        final Page<ObjectId> page = this.page;
+        if (page.isValid()) {
+            int index = page.indexOf(oid);
+            if (index > -1 && index + 1 < page.getEndIndex()) return false;
+        }
+
+        // it is the last one if it satisfies the query and nothing follows it
+        Object[] key = sortKeyOf(oid);
+        return key != null && seekNeighbor(oid, key, true) == null;
     }
 
     @Override
@@ -623,16 +1925,186 @@ public class MongoContainer<Bean>
 
     @Override
     protected void fireItemSetChange() {
-        page.setInvalid();
+        invalidatePages();
+        countCache.invalidate();
+        if (batchDepth > 0) {
+            // deferred until the end of batchUpdate()
+            pendingItemSetChange = true;
+            return;
+        }
         super.fireItemSetChange();
     }
 
     /**
-     * invalidate the internal page and reload it
+     * drops the given item from the item cache, so that the next {@link #getItem(Object)}
+     * reads it again, e.g. to discard the edits made to its bean through an unbuffered form
+     */
+    public void refreshItem(Object itemId) {
+        if (itemId instanceof ObjectId) itemCache.remove((ObjectId) itemId);
+    }
+
+    /**
+     * invalidate the internal page, the cached size and the cached items.
+     *
+     * Nothing is fetched here: the page and the size are reloaded
+     * by the first read that needs them, so that several invalidations
+     * in a row cost a single round-trip.
      */
     public void refresh() {
-        page.setInvalid();
-        page();
+        invalidatePages();
+        countCache.invalidate();
+        itemCache.clear();
+    }
+
+    /**
+     * invalidates the current page and all the cached pages,
+     * and the id snapshot, if any.
+     * Like {@link #refresh()}, it only marks them stale
+     */
+    protected void invalidatePages() {
+        synchronized (pageLock) {
+            generation.incrementAndGet();
+            idSnapshot = null;
+            page.setInvalid();
+            pageCache.invalidate();
+        }
+        closeSequentialCursor();
+    }
+
+    /**
+     * applies all the changes received so far, and fires
+     * at most one ItemSetChangeEvent for them
+     */
+    protected void applyPendingChanges() {
+        boolean affected = false;
+        do {
+            List<ChangeEvent> events = new ArrayList<ChangeEvent>();
+            for (ChangeEvent event = pendingChanges.poll(); event != null; event = pendingChanges.poll()) {
+                events.add(event);
+            }
+            changesScheduled.set(false);
+            affected |= applyChanges(events);
+            // a change may have been queued after the poll, but before the flag was reset
+        } while (!pendingChanges.isEmpty() && changesScheduled.compareAndSet(false, true));
+
+        if (affected) fireItemSetChange();
+    }
+
+    /**
+     * drops what the given changes make stale.
+     *
+     * Each document is looked up at most once, and only if a change
+     * touches the fields of the filter or the sort order;
+     * the count is queried at most once for all the changes.
+     *
+     * @return true if the result set of the container, or one of its
+     *          visible items, has changed
+     */
+    protected boolean applyChanges(List<ChangeEvent> events) {
+        final CompiledQuery q = compiledQuery();
+        final Set<String> queryFields = queryFields(q);
+        final Set<String> visibleFields = this.projection;
+
+        // the type of the last change of each document, and the documents
+        // whose query fields or visible fields have been changed
+        Map<ObjectId, ChangeEvent.Type> changes = new LinkedHashMap<ObjectId, ChangeEvent.Type>();
+        Set<ObjectId> moved = new HashSet<ObjectId>();
+        Set<ObjectId> redrawn = new HashSet<ObjectId>();
+        for (ChangeEvent event: events) {
+            if (event.getType() == ChangeEvent.Type.INVALIDATE
+                    || !(event.getDocumentId() instanceof ObjectId)) {
+                itemCache.clear();
+                return true;
+            }
+            ObjectId id = (ObjectId) event.getDocumentId();
+            changes.put(id, event.getType());
+            if (queryFields == null || event.touches(queryFields)) moved.add(id);
+            if (visibleFields == null || event.touches(visibleFields)) redrawn.add(id);
+        }
+
+        boolean affected = false;
+        boolean mayHaveLeft = false;
+        for (Map.Entry<ObjectId, ChangeEvent.Type> change: changes.entrySet()) {
+            ObjectId id = change.getKey();
+            itemCache.remove(id);
+            if (affected) continue;
+
+            boolean cached = isCached(id);
+            if (!moved.contains(id)) {
+                // neither in nor out of the result set, nor within it:
+                // it only matters if it is shown
+                affected = cached && redrawn.contains(id);
+            } else if (cached) {
+                affected = true;
+            } else if (change.getValue() != ChangeEvent.Type.DELETE
+                    && sortKeyOf(id) != null) {
+                // it is part of the result set now
+                affected = true;
+            } else {
+                mayHaveLeft = true;
+            }
+        }
+
+        if (!affected && mayHaveLeft) {
+            // it may have left the result set
+            affected = countChanged();
+        }
+        return affected;
+    }
+
+    /**
+     * @return the fields whose changes may move a document in or out of the items
+     *          of this container, or within them; null if they cannot be told
+     */
+    @Nullable
+    protected Set<String> queryFields(CompiledQuery q) {
+        return q.getFields();
+    }
+
+    /**
+     * @return true if the given id is held by the current page,
+     *          the cached pages or the id snapshot
+     */
+    protected boolean isCached(ObjectId id) {
+        final Page<ObjectId> page = this.page;
+        final IdSnapshot idSnapshot = this.idSnapshot;
+        return (page.isValid() && page.contains(id))
+                || pageCache.indexOf(id) > -1
+                || (idSnapshot != null && idSnapshot.indexOf(id) > -1);
+    }
+
+    /**
+     * @return true if the number of documents that satisfy the query
+     *          is not the cached one anymore. If no count is cached,
+     *          nobody can have seen it, and it is just invalidated
+     */
+    protected boolean countChanged() {
+        String fingerprint = countFingerprint();
+        Long cached = countCache.get(fingerprint);
+        countCache.invalidate();
+        if (cached == null || isSnapshotMode()) return false;
+
+        long count = sizeStrategy.size(compiledQuery());
+        countCache.put(fingerprint, count);
+        return count != cached;
+    }
+
+    /**
+     * stops receiving the changes of the collection, if subscribed
+     * (see {@link Builder#withChangeFeed(ChangeFeed, java.util.concurrent.Executor)})
+     */
+    public void closeChangeFeed() {
+        if (changeSubscription != null) {
+            changeSubscription.cancel();
+            changeSubscription = null;
+        }
+    }
+
+    /**
+     * @return the cache of pages, e.g. to inspect its hit/miss counters
+     */
+    public PageCache<ObjectId> getPageCache() {
+        return pageCache;
     }
 
     protected Query makeBaseQuery() {
@@ -660,33 +2132,62 @@ public class MongoContainer<Bean>
     @Override
     public void addContainerFilter(Filter filter) throws UnsupportedFilterException {
         Criteria c = filterConverter.convert(filter);
-        if (this.query.getQueryObject().toMap().isEmpty()) {
-            this.query = new Query(c);
-        } else {
-            this.query.addCriteria(c);
+        synchronized (queryLock) {
+            List<Criteria> criteriaList = new ArrayList<Criteria>(appliedCriteria);
+            criteriaList.add(c);
+            this.query = makeQuery(criteriaList, this.sort);
+            appliedCriteria.add(c);
+            appliedFilters.add(filter);
         }
-        appliedCriteria.add(c);
-        appliedFilters.add(filter);
-        page.setInvalid();
-        fireItemSetChange();
+        queryChanged();
+    }
+
+    /**
+     * adds all the given filters, firing a single ItemSetChangeEvent
+     */
+    public void addAllContainerFilters(final Collection<? extends Filter> filters) {
+        batchUpdate(new Runnable() {
+            @Override
+            public void run() {
+                for (Filter f : filters) addContainerFilter(f);
+            }
+        });
     }
 
-    public void addAllContainerFilters(Collection<? extends Filter> filters) {
-        for (Filter f : filters) this.addContainerFilter(f);
+    /**
+     * replaces the current filters with the given ones.
+     * The query is rebuilt once, and a single ItemSetChangeEvent is fired.
+     * If any of the filters is not supported, the current filters are left untouched
+     *
+     * @throws com.vaadin.data.util.filter.UnsupportedFilterException if a filter cannot be converted
+     */
+    public void setContainerFilters(Collection<? extends Filter> filters) throws UnsupportedFilterException {
+        List<Criteria> criteriaList = new ArrayList<Criteria>(filters.size());
+        for (Filter f: filters) criteriaList.add(filterConverter.convert(f));
+
+        synchronized (queryLock) {
+            this.query = makeQuery(criteriaList, this.sort);
+            appliedFilters.clear();
+            appliedFilters.addAll(filters);
+            appliedCriteria.clear();
+            appliedCriteria.addAll(criteriaList);
+        }
+        queryChanged();
     }
 
     @Override
     public void removeContainerFilter(Filter filter) {
-        appliedFilters.remove(filter);
-        List<Filter> backupFilters = new ArrayList<Filter>(appliedFilters);
-
-        // the only way to re-build the query is clearing it and rebuild it
-        // so, we clear the appliedFilters list
-        doRemoveAllContainerFilters();
-
-        // and we add them back
-        this.addAllContainerFilters(backupFilters);
-        fireItemSetChange();
+        synchronized (queryLock) {
+            int index = appliedFilters.indexOf(filter);
+            if (index < 0) return;
+
+            List<Criteria> criteriaList = new ArrayList<Criteria>(appliedCriteria);
+            criteriaList.remove(index);
+            this.query = makeQuery(criteriaList, this.sort);
+            appliedFilters.remove(index);
+            appliedCriteria.remove(index);
+        }
+        queryChanged();
     }
 
     @Override
@@ -696,19 +2197,70 @@ public class MongoContainer<Bean>
     }
 
     protected void doRemoveAllContainerFilters() {
-        resetQuery();
-        applySort(this.query, this.sort);
-        page.setInvalid();
+        synchronized (queryLock) {
+            this.appliedFilters.clear();
+            this.appliedCriteria.clear();
+            this.query = makeQuery(appliedCriteria, this.sort);
+            this.compiledQuery = null;
+        }
+        invalidatePages();
     }
 
     protected void resetQuery() {
-        this.query = makeBaseQuery();
-        this.appliedFilters.clear();
-        this.appliedCriteria.clear();
-        this.sort = null;
+        synchronized (queryLock) {
+            this.query = makeBaseQuery();
+            this.appliedFilters.clear();
+            this.appliedCriteria.clear();
+            this.sort = null;
+            this.compiledQuery = null;
+        }
+    }
+
+    /**
+     * @return a new query with the base criteria and sort of this container,
+     *          the given criteria, and the given (optional) sort
+     */
+    protected Query makeQuery(List<Criteria> criteriaList, @Nullable Sort sort) {
+        List<Criteria> all = new ArrayList<Criteria>(criteriaList.size() + 1);
+        // the default criteria of the Builder is empty: it would only take up the null key
+        if (!criteria.getCriteriaObject().keySet().isEmpty()) all.add(criteria);
+        all.addAll(criteriaList);
+
+        Query q = new Query().with(baseSort);
+        applySort(q, sort);
+        applyCriteriaList(q, all);
+        return q;
     }
 
+    /**
+     * to be called when {@link #query} has been replaced:
+     * drops everything derived from the previous query and notifies the listeners
+     */
+    protected void queryChanged() {
+        invalidateCompiledQuery();
+        invalidatePages();
+        fireItemSetChange();
+    }
 
+    /**
+     * runs the given updates (e.g., changes to the filters, or to the sort order)
+     * firing at most one ItemSetChangeEvent, once they are all done,
+     * so that the listeners refetch the items only once.
+     *
+     * Nested calls are allowed: the event is fired by the outermost one.
+     */
+    public void batchUpdate(Runnable updates) {
+        batchDepth++;
+        try {
+            updates.run();
+        } finally {
+            batchDepth--;
+            if (batchDepth == 0 && pendingItemSetChange) {
+                pendingItemSetChange = false;
+                fireItemSetChange();
+            }
+        }
+    }
 
     @Override
     public Collection<Filter> getContainerFilters() {
@@ -741,15 +2293,12 @@ public class MongoContainer<Bean>
             }
         }
 
-        resetQuery();
-
-        applySort(this.query, result);
-        applyCriteriaList(this.query, appliedCriteria);
-
-        this.sort = result;
-
-        refresh();
-        fireItemSetChange();
+        // keep the filters: only the sort order changes
+        synchronized (queryLock) {
+            this.query = makeQuery(appliedCriteria, result);
+            this.sort = result;
+        }
+        queryChanged();
 
     }
 
@@ -757,9 +2306,24 @@ public class MongoContainer<Bean>
         q.with(s);
         return q;
     }
+    /**
+     * adds the given criteria to the query. A query holds a single criteria per key:
+     * the criteria without a key (e.g. <code>$or</code>, <code>$and</code>, <code>$nor</code>)
+     * and those on a key that is already taken are combined with an <code>$and</code>
+     */
     protected Query applyCriteriaList(Query q, List<Criteria> criteriaList) {
-        for (Criteria c: criteriaList)
-            q.addCriteria(c);
+        Set<String> keys = new HashSet<String>(q.getQueryObject().keySet());
+        List<Criteria> combined = new ArrayList<Criteria>();
+        for (Criteria c: criteriaList) {
+            if (c.getKey() != null && keys.add(c.getKey())) q.addCriteria(c);
+            else combined.add(c);
+        }
+
+        if (combined.size() == 1 && combined.get(0).getKey() == null) {
+            q.addCriteria(combined.get(0));
+        } else if (!combined.isEmpty()) {
+            q.addCriteria(new Criteria().andOperator(combined.toArray(new Criteria[combined.size()])));
+        }
         return q;
     }
 
@@ -0,0 +1,134 @@
+/**
+ * Copyright (c) 2014 - Tyl Consulting s.a.s.
+ *
+ *    Authors: Edoardo Vacchi
+ *    Contributors: Marco Pancotti, Daniele Zonca
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.tylproject.vaadin.addon.changefeed;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * A change to a document of a collection, as reported by a {@link ChangeFeed}
+ */
+public class ChangeEvent {
+
+    public enum Type {
+        INSERT,
+        UPDATE,
+        DELETE,
+        /**
+         * the collection as a whole has changed (e.g., it has been dropped):
+         * everything derived from it is stale
+         */
+        INVALIDATE
+    }
+
+    private final String namespace;
+    private final Type type;
+    private final Object documentId;
+    private final Set<String> updatedFields;
+
+    /**
+     * @param namespace the full name of the collection, i.e. <code>database.collection</code>
+     * @param documentId the <code>_id</code> of the document, or null for {@link Type#INVALIDATE}
+     */
+    public ChangeEvent(String namespace, Type type, Object documentId) {
+        this(namespace, type, documentId, null);
+    }
+
+    /**
+     * @param updatedFields the (possibly dotted) paths of the fields
+     *                      changed by an {@link Type#UPDATE}, or null if unknown
+     */
+    public ChangeEvent(String namespace, Type type, Object documentId, Set<String> updatedFields) {
+        this.namespace = namespace;
+        this.type = type;
+        this.documentId = documentId;
+        this.updatedFields = updatedFields == null? null : Collections.unmodifiableSet(updatedFields);
+    }
+
+    public static ChangeEvent insert(String namespace, Object documentId) {
+        return new ChangeEvent(namespace, Type.INSERT, documentId);
+    }
+
+    public static ChangeEvent update(String namespace, Object documentId) {
+        return new ChangeEvent(namespace, Type.UPDATE, documentId);
+    }
+
+    /**
+     * an update that only changed the given fields
+     */
+    public static ChangeEvent update(String namespace, Object documentId, Set<String> updatedFields) {
+        return new ChangeEvent(namespace, Type.UPDATE, documentId, updatedFields);
+    }
+
+    public static ChangeEvent delete(String namespace, Object documentId) {
+        return new ChangeEvent(namespace, Type.DELETE, documentId);
+    }
+
+    public static ChangeEvent invalidate(String namespace) {
+        return new ChangeEvent(namespace, Type.INVALIDATE, null);
+    }
+
+    public String getNamespace() {
+        return namespace;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public Object getDocumentId() {
+        return documentId;
+    }
+
+    /**
+     * @return the fields changed by an update, or null if unknown
+     *          (or if this is not an update)
+     */
+    public Set<String> getUpdatedFields() {
+        return updatedFields;
+    }
+
+    /**
+     * @return false only if this event is known not to change any of the given fields;
+     *          a field is changed if the event updates it, one of its sub-fields,
+     *          or the document that contains it
+     */
+    public boolean touches(Collection<String> fields) {
+        if (type != Type.UPDATE || updatedFields == null) return true;
+        for (String updated: updatedFields) {
+            for (String field: fields) {
+                if (isPrefix(updated, field) || isPrefix(field, updated)) return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isPrefix(String path, String other) {
+        return other.startsWith(path)
+                && (other.length() == path.length() || other.charAt(path.length()) == '.');
+    }
+
+    @Override
+    public String toString() {
+        return "ChangeEvent{" + type + ' ' + namespace + (documentId == null? "" : " " + documentId) + '}';
+    }
+}
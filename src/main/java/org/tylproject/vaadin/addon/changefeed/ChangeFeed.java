@@ -0,0 +1,48 @@
+/**
+ * Copyright (c) 2014 - Tyl Consulting s.a.s.
+ *
+ *    Authors: Edoardo Vacchi
+ *    Contributors: Marco Pancotti, Daniele Zonca
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.tylproject.vaadin.addon.changefeed;
+
+/**
+ * A source of {@link ChangeEvent}s, e.g., for changes
+ * performed by other clients of the database.
+ *
+ * Listeners may be notified on any thread.
+ */
+public interface ChangeFeed {
+
+    interface Listener {
+        void onChange(ChangeEvent event);
+    }
+
+    interface Subscription {
+        /**
+         * stops the notifications to the subscribed listener
+         */
+        void cancel();
+    }
+
+    /**
+     * notifies the given listener of the changes to the given collection
+     *
+     * @param namespace the full name of the collection, i.e. <code>database.collection</code>
+     */
+    Subscription subscribe(String namespace, Listener listener);
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright (c) 2014 - Tyl Consulting s.a.s.
+ *
+ *    Authors: Edoardo Vacchi
+ *    Contributors: Marco Pancotti, Daniele Zonca
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.tylproject.vaadin.addon.changefeed;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A {@link ChangeFeed} whose events are published explicitly,
+ * e.g., in tests, or by the application itself
+ */
+public class InMemoryChangeFeed implements ChangeFeed {
+
+    private final Map<String, List<Listener>> listeners =
+            new ConcurrentHashMap<String, List<Listener>>();
+
+    @Override
+    public Subscription subscribe(final String namespace, final Listener listener) {
+        List<Listener> nsListeners;
+        synchronized (listeners) {
+            nsListeners = listeners.get(namespace);
+            if (nsListeners == null) {
+                nsListeners = new CopyOnWriteArrayList<Listener>();
+                listeners.put(namespace, nsListeners);
+            }
+        }
+        nsListeners.add(listener);
+
+        final List<Listener> subscribed = nsListeners;
+        return new Subscription() {
+            @Override
+            public void cancel() {
+                subscribed.remove(listener);
+            }
+        };
+    }
+
+    /**
+     * notifies the given event to the listeners of its namespace,
+     * on the calling thread
+     */
+    public void publish(ChangeEvent event) {
+        List<Listener> nsListeners = listeners.get(event.getNamespace());
+        if (nsListeners == null) return;
+        for (Listener listener: nsListeners) listener.onChange(event);
+    }
+}
@@ -0,0 +1,208 @@
+/**
+ * Copyright (c) 2014 - Tyl Consulting s.a.s.
+ *
+ *    Authors: Edoardo Vacchi
+ *    Contributors: Marco Pancotti, Daniele Zonca
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.tylproject.vaadin.addon.changefeed;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.Bytes;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.MongoClient;
+import com.mongodb.MongoException;
+import org.bson.types.BSONTimestamp;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A {@link ChangeFeed} that tails the oplog of a replica set member
+ * (<code>local.oplog.rs</code>), starting from the time of the first subscription.
+ *
+ * A single background thread reads the oplog for all the subscriptions,
+ * and notifies the listeners on that thread. Entries are matched to
+ * the subscribed namespaces on the client, so a feed should be shared
+ * by all the containers of an application.
+ * The thread stops when {@link #close()} is called.
+ */
+public class OplogChangeFeed implements ChangeFeed {
+
+    private final static Logger log = Logger.getLogger(OplogChangeFeed.class.getName());
+    private final static long RETRY_DELAY_MILLIS = 1000;
+
+    private final DBCollection oplog;
+    private final Map<String, List<Listener>> listeners =
+            new ConcurrentHashMap<String, List<Listener>>();
+
+    private Thread tailer;
+    private volatile boolean closed = false;
+    private volatile DBCursor cursor;
+
+    /**
+     * @param client a client connected to a replica set (a single-node one will do)
+     */
+    public OplogChangeFeed(MongoClient client) {
+        this.oplog = client.getDB("local").getCollection("oplog.rs");
+    }
+
+    @Override
+    public synchronized Subscription subscribe(final String namespace, final Listener listener) {
+        if (closed) throw new IllegalStateException("the change feed has been closed");
+
+        List<Listener> nsListeners = listeners.get(namespace);
+        if (nsListeners == null) {
+            nsListeners = new CopyOnWriteArrayList<Listener>();
+            listeners.put(namespace, nsListeners);
+        }
+        nsListeners.add(listener);
+
+        if (tailer == null) {
+            final BSONTimestamp start = lastTimestamp();
+            tailer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    tail(start);
+                }
+            }, "oplog-change-feed");
+            tailer.setDaemon(true);
+            tailer.start();
+        }
+
+        final List<Listener> subscribed = nsListeners;
+        return new Subscription() {
+            @Override
+            public void cancel() {
+                subscribed.remove(listener);
+            }
+        };
+    }
+
+    /**
+     * stops tailing the oplog
+     */
+    public synchronized void close() {
+        closed = true;
+        DBCursor c = cursor;
+        if (c != null) c.close();
+        if (tailer != null) tailer.interrupt();
+    }
+
+    private BSONTimestamp lastTimestamp() {
+        DBCursor last = oplog.find().sort(new BasicDBObject("$natural", -1)).limit(1);
+        try {
+            return last.hasNext()? (BSONTimestamp) last.next().get("ts") : new BSONTimestamp(0, 0);
+        } finally {
+            last.close();
+        }
+    }
+
+    private void tail(BSONTimestamp start) {
+        BSONTimestamp last = start;
+        while (!closed) {
+            try {
+                DBObject query = new BasicDBObject("ts", new BasicDBObject("$gt", last));
+                cursor = oplog.find(query)
+                        .addOption(Bytes.QUERYOPTION_TAILABLE)
+                        .addOption(Bytes.QUERYOPTION_AWAITDATA)
+                        .addOption(Bytes.QUERYOPTION_OPLOGREPLAY);
+                while (!closed && cursor.hasNext()) {
+                    DBObject entry = cursor.next();
+                    last = (BSONTimestamp) entry.get("ts");
+                    ChangeEvent event = toEvent(entry);
+                    if (event != null) notifyListeners(event);
+                }
+            } catch (MongoException ex) {
+                if (closed) return;
+                log.log(Level.WARNING, "cannot tail the oplog, retrying", ex);
+            } catch (RuntimeException ex) {
+                // e.g. the cursor has been closed by close()
+                if (closed) return;
+                log.log(Level.WARNING, "error while notifying a change", ex);
+            } finally {
+                DBCursor c = cursor;
+                if (c != null) c.close();
+            }
+
+            try {
+                Thread.sleep(RETRY_DELAY_MILLIS);
+            } catch (InterruptedException ex) {
+                return;
+            }
+        }
+    }
+
+    private void notifyListeners(ChangeEvent event) {
+        List<Listener> nsListeners = listeners.get(event.getNamespace());
+        if (nsListeners == null) return;
+        for (Listener listener: nsListeners) listener.onChange(event);
+    }
+
+    /**
+     * @return the event for the given oplog entry, or null if it is irrelevant
+     */
+    static ChangeEvent toEvent(DBObject entry) {
+        String op = (String) entry.get("op");
+        String ns = (String) entry.get("ns");
+        DBObject o = (DBObject) entry.get("o");
+        if (op == null || ns == null) return null;
+
+        if ("i".equals(op)) {
+            return ChangeEvent.insert(ns, o.get("_id"));
+        } else if ("u".equals(op)) {
+            DBObject o2 = (DBObject) entry.get("o2");
+            return ChangeEvent.update(ns, o2 == null? null : o2.get("_id"), updatedFields(o));
+        } else if ("d".equals(op)) {
+            return ChangeEvent.delete(ns, o.get("_id"));
+        } else if ("c".equals(op) && ns.endsWith(".$cmd") && o != null) {
+            // commands are logged on the database: find the affected collection
+            String db = ns.substring(0, ns.length() - ".$cmd".length());
+            Object collection = o.containsField("drop")? o.get("drop") : o.get("renameCollection");
+            if (collection == null) return null;
+            String target = collection.toString();
+            return ChangeEvent.invalidate(target.contains(".")? target : db + '.' + target);
+        }
+        // e.g. "n", no-ops
+        return null;
+    }
+
+    /**
+     * @return the fields changed by the given update operators,
+     *          or null if they cannot be told, e.g. for a whole replacement
+     */
+    static Set<String> updatedFields(DBObject update) {
+        if (update == null) return null;
+        Set<String> fields = new HashSet<String>();
+        for (String operator: update.keySet()) {
+            if (!operator.startsWith("$")) return null;
+            // the version of the oplog format
+            if ("$v".equals(operator)) continue;
+            Object arguments = update.get(operator);
+            if (!(arguments instanceof DBObject)) return null;
+            fields.addAll(((DBObject) arguments).keySet());
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2014 - Tyl Consulting s.a.s.
+ *
+ *    Authors: Edoardo Vacchi
+ *    Contributors: Marco Pancotti, Daniele Zonca
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.tylproject.vaadin.addon.utils;
+
+/**
+ * Chooses how many ids to fetch for a requested range,
+ * from the ranges that have been requested before.
+ *
+ * A range that touches or overlaps the previous one means that the user is scrolling:
+ * the page size is doubled, so that scrolling costs fewer and larger fetches.
+ * A range far from the previous one is a random jump: the page size is halved,
+ * so that jumping around does not fetch rows that are never shown.
+ * The page size is always kept within the given bounds,
+ * and never smaller than the requested range.
+ *
+ * The counters describe the decisions taken so far.
+ */
+public class AdaptivePageSize {
+
+    private final int minPageSize;
+    private final int maxPageSize;
+
+    private int pageSize;
+    private int lastStartIndex = -1;
+    private int lastEndIndex = -1;
+    private boolean backward = false;
+
+    private long sequentialCount;
+    private long randomCount;
+    private long growCount;
+    private long shrinkCount;
+
+    /**
+     * @param initialPageSize the page size until the first decision;
+     *                        it is brought within the bounds if needed
+     */
+    public AdaptivePageSize(int initialPageSize, int minPageSize, int maxPageSize) {
+        if (minPageSize < 1 || maxPageSize < minPageSize)
+            throw new IllegalArgumentException(String.format(
+                    "invalid page size bounds: [%d,%d]", minPageSize, maxPageSize));
+        this.minPageSize = minPageSize;
+        this.maxPageSize = maxPageSize;
+        this.pageSize = Math.max(minPageSize, Math.min(maxPageSize, initialPageSize));
+    }
+
+    /**
+     * records a request for the given range, adjusting the page size
+     *
+     * @return the number of ids to fetch to serve the range
+     */
+    public synchronized int record(int startIndex, int numberOfItems) {
+        int endIndex = startIndex + numberOfItems;
+
+        // nothing to learn from the first request, or from the same range again (e.g., a repaint)
+        boolean repeated = startIndex == lastStartIndex && endIndex == lastEndIndex;
+        if (lastStartIndex >= 0 && !repeated) {
+            if (startIndex <= lastEndIndex && endIndex >= lastStartIndex) {
+                sequentialCount++;
+                backward = startIndex < lastStartIndex;
+                int grown = Math.min(maxPageSize, pageSize * 2);
+                if (grown != pageSize) growCount++;
+                pageSize = grown;
+            } else {
+                randomCount++;
+                backward = false;
+                int shrunk = Math.max(minPageSize, pageSize / 2);
+                if (shrunk != pageSize) shrinkCount++;
+                pageSize = shrunk;
+            }
+        }
+
+        lastStartIndex = startIndex;
+        lastEndIndex = endIndex;
+        return Math.max(numberOfItems, pageSize);
+    }
+
+    /**
+     * @return true if the most recent requests scroll towards the start,
+     *          so that the page should extend before the requested range
+     *          rather than after it
+     */
+    public synchronized boolean isBackward() {
+        return backward;
+    }
+
+    public synchronized int getPageSize() {
+        return pageSize;
+    }
+
+    public int getMinPageSize() {
+        return minPageSize;
+    }
+
+    public int getMaxPageSize() {
+        return maxPageSize;
+    }
+
+    /**
+     * @return the number of requests recognized as scrolling
+     */
+    public synchronized long getSequentialCount() {
+        return sequentialCount;
+    }
+
+    /**
+     * @return the number of requests recognized as random jumps
+     */
+    public synchronized long getRandomCount() {
+        return randomCount;
+    }
+
+    /**
+     * @return the number of times the page size has grown
+     */
+    public synchronized long getGrowCount() {
+        return growCount;
+    }
+
+    /**
+     * @return the number of times the page size has shrunk
+     */
+    public synchronized long getShrinkCount() {
+        return shrinkCount;
+    }
+}
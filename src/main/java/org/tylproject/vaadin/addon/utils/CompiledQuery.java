@@ -0,0 +1,166 @@
+/**
+ * Copyright (c) 2014 - Tyl Consulting s.a.s.
+ *
+ *    Authors: Edoardo Vacchi
+ *    Contributors: Marco Pancotti, Daniele Zonca
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.tylproject.vaadin.addon.utils;
+
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The rendered form of a {@link org.springframework.data.mongodb.core.query.Query},
+ * bound to the collection it runs against.
+ *
+ * Rendering a Query into BSON is not free, and it used to happen
+ * on every lookup; a compiled query is built once,
+ * whenever the filters or the sort order change, and then shared.
+ *
+ * Instances are immutable: the filter and sort objects <em>must not</em> be mutated.
+ * Derived conditions are obtained through {@link #and(com.mongodb.DBObject)},
+ * which never touches the shared objects.
+ */
+public final class CompiledQuery {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final DBCollection collection;
+    private final DBObject filter;
+    private final DBObject sort;
+    private final String fingerprint;
+    private final Set<String> fields;
+
+    private CompiledQuery(DBCollection collection, DBObject filter, DBObject sort) {
+        this.collection = collection;
+        this.filter = filter;
+        this.sort = sort;
+        this.fingerprint = md5(collection.getFullName() + '\n' + filter);
+
+        Set<String> fields = new HashSet<String>(sort.keySet());
+        this.fields = collectFields(filter, fields)? Collections.unmodifiableSet(fields) : null;
+    }
+
+    /**
+     * renders the given query for the given collection.
+     * The sort order is made total by an <code>_id</code> tie-break
+     * (see {@link SortKeys#withTieBreak(com.mongodb.DBObject)})
+     */
+    public static CompiledQuery compile(Query query, DBCollection collection) {
+        return new CompiledQuery(
+                collection,
+                query.getQueryObject(),
+                SortKeys.withTieBreak(query.getSortObject()));
+    }
+
+    /**
+     * @return the condition of this query, in conjunction with the given one;
+     *          the result may share structure with the filter of this query
+     */
+    public DBObject and(DBObject condition) {
+        return SortKeys.and(filter, condition);
+    }
+
+    /**
+     * @return the number of documents that satisfy the filter
+     */
+    public long count() {
+        return collection.count(filter);
+    }
+
+    public DBCollection getCollection() {
+        return collection;
+    }
+
+    public DBObject getFilter() {
+        return filter;
+    }
+
+    public DBObject getSort() {
+        return sort;
+    }
+
+    /**
+     * @return the fields that the filter and the sort order depend on:
+     *          a change to the other fields of a document moves it neither
+     *          in nor out of the result set, nor within it.
+     *          Null if they cannot be told, e.g. for a <code>$where</code> condition
+     */
+    public Set<String> getFields() {
+        return fields;
+    }
+
+    /**
+     * @return a stable hash of the collection and the filter, suitable for cache keys.
+     *          The sort order does not contribute to it, as it does not change
+     *          the set of matching documents.
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * adds the fields of the given condition to the given set
+     *
+     * @return false if the condition may depend on any field
+     */
+    private static boolean collectFields(DBObject condition, Set<String> fields) {
+        for (String key: condition.keySet()) {
+            if (!key.startsWith("$")) {
+                fields.add(key);
+                continue;
+            }
+            if ("$where".equals(key) || "$expr".equals(key)) return false;
+            // logical operators, e.g. $and, $or, $nor
+            Object operand = condition.get(key);
+            if (operand instanceof List) {
+                for (Object clause: (List<?>) operand) {
+                    if (clause instanceof DBObject && !collectFields((DBObject) clause, fields)) return false;
+                }
+            } else if (operand instanceof DBObject) {
+                if (!collectFields((DBObject) operand, fields)) return false;
+            }
+        }
+        return true;
+    }
+
+    private static String md5(String s) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(s.getBytes(UTF8));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b: digest) sb.append(String.format("%02x", b & 0xff));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            // every Java platform is required to support MD5
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CompiledQuery{filter=" + filter + ", sort=" + sort + '}';
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright (c) 2014 - Tyl Consulting s.a.s.
+ *
+ *    Authors: Edoardo Vacchi
+ *    Contributors: Marco Pancotti, Daniele Zonca
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.tylproject.vaadin.addon.utils;
+
+/**
+ * Caches the result of a count query.
+ *
+ * The cached value is bound to the fingerprint of the query that produced it:
+ * a lookup with a different fingerprint is always a miss.
+ * The owner is responsible for calling {@link #invalidate()} whenever
+ * the underlying collection is known to have changed.
+ *
+ * An optional time-to-live bounds the staleness of the cached value
+ * with respect to changes that the owner cannot see
+ * (e.g., writes performed by other clients).
+ */
+public class CountCache {
+    /**
+     * a time-to-live value that never expires
+     */
+    public static final long NO_TTL = 0;
+
+    private final long ttlNanos;
+
+    private String fingerprint;
+    private long count;
+    private long timestamp;
+
+    private long hits;
+    private long misses;
+
+    /**
+     * @param ttlMillis time-to-live in milliseconds,
+     *                  or {@link #NO_TTL} to keep values until invalidated
+     */
+    public CountCache(long ttlMillis) {
+        if (ttlMillis < 0)
+            throw new IllegalArgumentException("ttl cannot be negative: "+ttlMillis);
+        this.ttlNanos = ttlMillis * 1000000L;
+    }
+
+    /**
+     * @return the cached count for the given query fingerprint,
+     *         or null if it is not cached (or it has expired)
+     */
+    public synchronized Long get(String fingerprint) {
+        if (this.fingerprint != null
+                && this.fingerprint.equals(fingerprint)
+                && !isExpired()) {
+            hits++;
+            return count;
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * stores the count for the given query fingerprint,
+     * replacing any previous value
+     */
+    public synchronized void put(String fingerprint, long count) {
+        this.fingerprint = fingerprint;
+        this.count = count;
+        this.timestamp = System.nanoTime();
+    }
+
+    /**
+     * discards the cached value
+     */
+    public synchronized void invalidate() {
+        this.fingerprint = null;
+    }
+
+    private boolean isExpired() {
+        return ttlNanos != NO_TTL && System.nanoTime() - timestamp >= ttlNanos;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public long getTtlMillis() {
+        return ttlNanos / 1000000L;
+    }
+
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2014 - Tyl Consulting s.a.s.
+ *
+ *    Authors: Edoardo Vacchi
+ *    Contributors: Marco Pancotti, Daniele Zonca
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.tylproject.vaadin.addon.utils;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Computes the update that turns a document into another one,
+ * touching only the paths that differ.
+ *
+ * Embedded documents are compared field by field, so that a change to
+ * a nested value is written as a dotted path (e.g. <code>{$set: {"address.street": ...}}</code>);
+ * any other value (including arrays) is replaced as a whole when it differs.
+ * Fields that are missing from the new document are unset.
+ */
+public final class DocumentDiff {
+
+    private static final String ID = "_id";
+
+    private DocumentDiff() {}
+
+    /**
+     * @return an update object with the <code>$set</code> and <code>$unset</code>
+     *          operators needed to turn the <code>before</code> document
+     *          into the <code>after</code> document; it is empty if they are equal.
+     *          The <code>_id</code> is never part of the update
+     */
+    public static DBObject updateOf(DBObject before, DBObject after) {
+        DBObject set = new BasicDBObject();
+        DBObject unset = new BasicDBObject();
+        diff("", before, after, set, unset);
+
+        DBObject update = new BasicDBObject();
+        if (!set.keySet().isEmpty()) update.put("$set", set);
+        if (!unset.keySet().isEmpty()) update.put("$unset", unset);
+        return update;
+    }
+
+    /**
+     * @return true if the given update does not change anything
+     */
+    public static boolean isEmpty(DBObject update) {
+        return update.keySet().isEmpty();
+    }
+
+    private static void diff(String prefix, DBObject before, DBObject after, DBObject set, DBObject unset) {
+        for (String key: after.keySet()) {
+            if (prefix.isEmpty() && ID.equals(key)) continue;
+
+            Object oldValue = before.get(key);
+            Object newValue = after.get(key);
+            String path = prefix + key;
+
+            if (isDocument(oldValue) && isDocument(newValue)) {
+                diff(path + ".", (DBObject) oldValue, (DBObject) newValue, set, unset);
+            } else if (!before.containsField(key) || !valueEquals(oldValue, newValue)) {
+                set.put(path, newValue);
+            }
+        }
+
+        for (String key: before.keySet()) {
+            if (prefix.isEmpty() && ID.equals(key)) continue;
+            if (!after.containsField(key)) unset.put(prefix + key, "");
+        }
+    }
+
+    private static boolean isDocument(Object value) {
+        return value instanceof DBObject && !(value instanceof List);
+    }
+
+    private static boolean valueEquals(Object a, Object b) {
+        if (a instanceof byte[] && b instanceof byte[]) return Arrays.equals((byte[]) a, (byte[]) b);
+        return a == null? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,204 @@
+/**
+ * Copyright (c) 2014 - Tyl Consulting s.a.s.
+ *
+ *    Authors: Edoardo Vacchi
+ *    Contributors: Marco Pancotti, Daniele Zonca
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.tylproject.vaadin.addon.utils;
+
+import org.bson.types.ObjectId;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * All the ids of a result set, in order, packed three ints per id
+ * (see {@link ObjectIdPage}), with a hashed index from id to position.
+ *
+ * Once built, positional access, lookups and ranges are all answered
+ * locally in constant time. The snapshot is immutable: it must be
+ * rebuilt to reflect changes to the result set.
+ *
+ * The ids may be kept on the heap, in direct (off-heap) buffers,
+ * or in a memory-mapped temporary file, for very large result sets.
+ */
+public class IdSnapshot {
+
+    public enum Storage {
+        /** int arrays on the Java heap */
+        HEAP,
+        /** direct buffers, outside of the Java heap */
+        DIRECT,
+        /** a temporary file, mapped in memory */
+        MAPPED
+    }
+
+    private static final int WORDS = 3;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final Storage storage;
+    private final int size;
+    private final IntBuffer words;
+    private final IntBuffer table;
+
+    private IdSnapshot(Storage storage, int size, IntBuffer words, IntBuffer table) {
+        this.storage = storage;
+        this.size = size;
+        this.words = words;
+        this.table = table;
+    }
+
+    /**
+     * reads all the given ids, in order
+     *
+     * @throws java.lang.IllegalStateException if a memory-mapped file cannot be created
+     */
+    public static IdSnapshot of(Iterator<ObjectId> ids, Storage storage) {
+        IntBuffer words = allocate(storage, INITIAL_CAPACITY * WORDS);
+        int size = 0;
+        while (ids.hasNext()) {
+            if (words.remaining() < WORDS) {
+                words = grow(storage, words);
+            }
+            byte[] bytes = ids.next().toByteArray();
+            for (int w = 0; w < WORDS; w++) words.put(ObjectIdPage.word(bytes, w));
+            size++;
+        }
+
+        IntBuffer table = allocate(storage, ObjectIdPage.tableCapacity(size));
+        int mask = table.capacity() - 1;
+        for (int slot = 0; slot < size; slot++) {
+            int base = slot * WORDS;
+            int bucket = ObjectIdPage.hash(words.get(base), words.get(base + 1), words.get(base + 2)) & mask;
+            while (table.get(bucket) != 0) bucket = (bucket + 1) & mask;
+            table.put(bucket, slot + 1);
+        }
+
+        return new IdSnapshot(storage, size, words, table);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Storage getStorage() {
+        return storage;
+    }
+
+    /**
+     * @return the id at the given position
+     * @throws java.lang.IndexOutOfBoundsException unless 0 <= index < size()
+     */
+    public ObjectId get(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException(index + " not within [0," + size + ")");
+        byte[] bytes = new byte[WORDS * 4];
+        int base = index * WORDS;
+        for (int w = 0; w < WORDS; w++) {
+            int word = words.get(base + w);
+            bytes[w*4]   = (byte) (word >>> 24);
+            bytes[w*4+1] = (byte) (word >>> 16);
+            bytes[w*4+2] = (byte) (word >>> 8);
+            bytes[w*4+3] = (byte) word;
+        }
+        return new ObjectId(bytes);
+    }
+
+    /**
+     * @return the position of the given id, or -1
+     */
+    public int indexOf(ObjectId id) {
+        if (id == null) return -1;
+        byte[] bytes = id.toByteArray();
+        int w0 = ObjectIdPage.word(bytes, 0), w1 = ObjectIdPage.word(bytes, 1), w2 = ObjectIdPage.word(bytes, 2);
+
+        int mask = table.capacity() - 1;
+        for (int bucket = ObjectIdPage.hash(w0, w1, w2) & mask; ; bucket = (bucket + 1) & mask) {
+            int entry = table.get(bucket);
+            if (entry == 0) return -1;
+            int base = (entry - 1) * WORDS;
+            if (words.get(base) == w0 && words.get(base+1) == w1 && words.get(base+2) == w2)
+                return entry - 1;
+        }
+    }
+
+    /**
+     * @return an immutable view of the given range, truncated at the end of the snapshot
+     */
+    public List<ObjectId> subList(final int startIndex, int numberOfItems) {
+        final int from = Math.max(0, Math.min(startIndex, size));
+        final int length = Math.max(0, Math.min(numberOfItems, size - from));
+
+        class Range extends AbstractList<ObjectId> implements RandomAccess {
+            @Override
+            public ObjectId get(int index) {
+                if (index < 0 || index >= length)
+                    throw new IndexOutOfBoundsException(index + " not within [0," + length + ")");
+                return IdSnapshot.this.get(from + index);
+            }
+
+            @Override
+            public int size() {
+                return length;
+            }
+        }
+
+        return new Range();
+    }
+
+    private static IntBuffer allocate(Storage storage, int ints) {
+        switch (storage) {
+            case DIRECT:
+                return ByteBuffer.allocateDirect(ints * 4).asIntBuffer();
+            case MAPPED:
+                return map(ints);
+            default:
+                return IntBuffer.allocate(ints);
+        }
+    }
+
+    private static IntBuffer grow(Storage storage, IntBuffer buffer) {
+        IntBuffer larger = allocate(storage, buffer.capacity() * 2);
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+
+    private static IntBuffer map(int ints) {
+        try {
+            File file = File.createTempFile("mongocontainer-ids", ".bin");
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                // the mapping stays valid after the channel is closed
+                return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, (long) ints * 4).asIntBuffer();
+            } finally {
+                raf.close();
+                if (!file.delete()) file.deleteOnExit();
+            }
+        } catch (IOException ex) {
+            throw new IllegalStateException("cannot map a temporary file for the id snapshot", ex);
+        }
+    }
+}
@@ -0,0 +1,296 @@
+/**
+ * Copyright (c) 2014 - Tyl Consulting s.a.s.
+ *
+ *    Authors: Edoardo Vacchi
+ *    Contributors: Marco Pancotti, Daniele Zonca
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.tylproject.vaadin.addon.utils;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+
+import java.util.*;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Checks whether the queries of a container can be answered from an index.
+ *
+ * The first time each <em>shape</em> of query is seen (the fields and operators
+ * of its filter, and its sort order, regardless of the values),
+ * the advisor runs <code>explain</code> on it, and reports to its listeners
+ * whether the winning plan scans the whole collection, or sorts in memory.
+ *
+ * Optionally, the advisor may also ensure that a compound index exists
+ * on the fields matched by equality, followed by the sort fields.
+ */
+public class IndexAdvisor {
+
+    private final static Logger log = Logger.getLogger(IndexAdvisor.class.getName());
+
+    /**
+     * receives the advice about the query shapes that are not covered by an index
+     */
+    public interface Listener {
+        void onUnindexedQuery(Advice advice);
+    }
+
+    /**
+     * the outcome of the explain of a query
+     */
+    public static class Advice {
+        private final String shape;
+        private final boolean collectionScan;
+        private final boolean inMemorySort;
+        private final DBObject suggestedIndex;
+        private final DBObject explain;
+
+        Advice(String shape, boolean collectionScan, boolean inMemorySort,
+               DBObject suggestedIndex, DBObject explain) {
+            this.shape = shape;
+            this.collectionScan = collectionScan;
+            this.inMemorySort = inMemorySort;
+            this.suggestedIndex = suggestedIndex;
+            this.explain = explain;
+        }
+
+        public String getShape() {
+            return shape;
+        }
+
+        /**
+         * @return true if the winning plan scans the whole collection
+         */
+        public boolean isCollectionScan() {
+            return collectionScan;
+        }
+
+        /**
+         * @return true if the winning plan sorts the results in memory
+         */
+        public boolean isInMemorySort() {
+            return inMemorySort;
+        }
+
+        /**
+         * @return true if the query is answered by walking an index in the required order
+         */
+        public boolean isCovered() {
+            return !collectionScan && !inMemorySort;
+        }
+
+        /**
+         * @return the keys of a compound index for this query:
+         *          the fields matched by equality, followed by the sort fields
+         */
+        public DBObject getSuggestedIndex() {
+            return suggestedIndex;
+        }
+
+        /**
+         * @return the raw output of explain
+         */
+        public DBObject getExplain() {
+            return explain;
+        }
+
+        @Override
+        public String toString() {
+            return "Advice{shape=" + shape
+                    + (collectionScan? ", COLLSCAN" : "")
+                    + (inMemorySort? ", in-memory SORT" : "")
+                    + ", suggestedIndex=" + suggestedIndex + '}';
+        }
+    }
+
+    private final boolean ensureIndexes;
+    private final List<Listener> listeners = new ArrayList<Listener>();
+    private final Set<String> seenShapes = new HashSet<String>();
+
+    /**
+     * @param ensureIndexes whether the suggested indexes should be created
+     *                      before explaining a new query shape
+     */
+    public IndexAdvisor(boolean ensureIndexes) {
+        this.ensureIndexes = ensureIndexes;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * explains the given query, unless its shape has been seen already,
+     * and notifies the listeners if it is not covered by an index
+     */
+    public void advise(CompiledQuery query) {
+        String shape = shapeOf(query);
+        synchronized (seenShapes) {
+            if (!seenShapes.add(shape)) return;
+        }
+
+        if (ensureIndexes) ensureIndex(query);
+
+        Advice advice = explain(query);
+        if (advice.isCovered()) return;
+
+        log.warning(advice.toString());
+        for (Listener listener: new ArrayList<Listener>(listeners)) {
+            listener.onUnindexedQuery(advice);
+        }
+    }
+
+    /**
+     * creates the suggested index for the given query, if it is not trivial
+     */
+    public static void ensureIndex(CompiledQuery query) {
+        DBObject keys = suggestIndex(query);
+        // the _id index always exists
+        if (keys.keySet().equals(Collections.singleton(SortKeys.ID))) return;
+        query.getCollection().createIndex(keys);
+    }
+
+    /**
+     * runs explain on the given query
+     */
+    public static Advice explain(CompiledQuery query) {
+        DBCollection collection = query.getCollection();
+        DBObject explain = collection.find(query.getFilter(), new BasicDBObject(SortKeys.ID, true))
+                .sort(query.getSort())
+                .explain();
+
+        boolean collectionScan;
+        boolean inMemorySort;
+        Object queryPlanner = explain.get("queryPlanner");
+        if (queryPlanner instanceof DBObject) {
+            Set<String> stages = new HashSet<String>();
+            collectStages((DBObject) ((DBObject) queryPlanner).get("winningPlan"), stages);
+            collectionScan = stages.contains("COLLSCAN");
+            inMemorySort = stages.contains("SORT");
+        } else {
+            // explain format of MongoDB 2.x
+            Object cursor = explain.get("cursor");
+            collectionScan = cursor != null && cursor.toString().startsWith("BasicCursor");
+            inMemorySort = Boolean.TRUE.equals(explain.get("scanAndOrder"));
+        }
+
+        return new Advice(shapeOf(query), collectionScan, inMemorySort, suggestIndex(query), explain);
+    }
+
+    /**
+     * meant for tests of a container configuration, e.g.:
+     * <pre>
+     *     IndexAdvisor.assertCovered(container.explainQuery());
+     * </pre>
+     *
+     * @throws java.lang.AssertionError unless the explained query is covered by an index
+     */
+    public static void assertCovered(Advice advice) {
+        if (!advice.isCovered())
+            throw new AssertionError("query is not covered by an index: " + advice);
+    }
+
+    /**
+     * @return the fields matched by equality, in ascending order,
+     *          followed by the fields of the sort
+     */
+    public static DBObject suggestIndex(CompiledQuery query) {
+        BasicDBObject keys = new BasicDBObject();
+        for (String field: equalityFields(query.getFilter())) {
+            keys.put(field, 1);
+        }
+        DBObject sort = query.getSort();
+        for (String field: sort.keySet()) {
+            if (!keys.containsField(field)) keys.put(field, sort.get(field));
+        }
+        return keys;
+    }
+
+    /**
+     * @return a representation of the given query where all the values
+     *          have been replaced by placeholders
+     */
+    public static String shapeOf(CompiledQuery query) {
+        return query.getCollection().getFullName() + ':'
+                + shapeOf(query.getFilter()) + ':' + query.getSort();
+    }
+
+    private static Object shapeOf(Object value) {
+        if (value instanceof BasicDBList) {
+            BasicDBList result = new BasicDBList();
+            for (Object o: (BasicDBList) value) result.add(shapeOf(o));
+            return result;
+        }
+        if (value instanceof DBObject) {
+            DBObject dbo = (DBObject) value;
+            BasicDBObject result = new BasicDBObject();
+            for (String key: dbo.keySet()) result.put(key, shapeOf(dbo.get(key)));
+            return result;
+        }
+        if (value instanceof Pattern) return "regex";
+        return "?";
+    }
+
+    private static List<String> equalityFields(DBObject filter) {
+        List<String> fields = new ArrayList<String>();
+        for (String key: filter.keySet()) {
+            Object value = filter.get(key);
+            if ("$and".equals(key) && value instanceof BasicDBList) {
+                for (Object o: (BasicDBList) value) {
+                    if (o instanceof DBObject) fields.addAll(equalityFields((DBObject) o));
+                }
+            } else if (!key.startsWith("$") && isEquality(value)) {
+                fields.add(key);
+            }
+        }
+        return fields;
+    }
+
+    private static boolean isEquality(Object value) {
+        if (value instanceof Pattern) return false;
+        if (!(value instanceof DBObject) || value instanceof BasicDBList) return true;
+        DBObject dbo = (DBObject) value;
+        for (String key: dbo.keySet()) {
+            // an operator, unless it is $eq
+            if (key.startsWith("$")) return "$eq".equals(key) && dbo.keySet().size() == 1;
+        }
+        // a sub-document
+        return true;
+    }
+
+    private static void collectStages(DBObject plan, Set<String> stages) {
+        if (plan == null) return;
+        Object stage = plan.get("stage");
+        if (stage != null) stages.add(stage.toString());
+
+        Object input = plan.get("inputStage");
+        if (input instanceof DBObject) collectStages((DBObject) input, stages);
+
+        Object inputs = plan.get("inputStages");
+        if (inputs instanceof BasicDBList) {
+            for (Object o: (BasicDBList) inputs) {
+                if (o instanceof DBObject) collectStages((DBObject) o, stages);
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ * Copyright (c) 2014 - Tyl Consulting s.a.s.
+ *
+ *    Authors: Edoardo Vacchi
+ *    Contributors: Marco Pancotti, Daniele Zonca
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.tylproject.vaadin.addon.utils;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache with least-recently-used eviction.
+ *
+ * When the cache holds <em>soft</em> values, the garbage collector
+ * may also reclaim entries under memory pressure; reclaimed entries
+ * behave as if they had been evicted.
+ *
+ * An optional time-to-live bounds the staleness of the cached values
+ * with respect to changes that the owner cannot see
+ * (e.g., writes performed by other clients): expired entries
+ * behave as if they had been evicted, too.
+ *
+ * A cache with a maximum size of 0 is disabled: it never holds any value.
+ *
+ * The cache is thread-safe.
+ *
+ * @param <K> type of the keys
+ * @param <V> type of the cached values
+ */
+public class ItemCache<K,V> {
+    /**
+     * a time-to-live value that never expires
+     */
+    public static final long NO_TTL = 0;
+
+    private final int maxSize;
+    private final boolean softValues;
+    private final long ttlNanos;
+    private final LinkedHashMap<K,Entry> entries;
+    private final ReferenceQueue<V> reclaimed = new ReferenceQueue<V>();
+
+    private long hits;
+    private long misses;
+
+    /**
+     * @param maxSize maximum number of entries; 0 disables the cache
+     * @param softValues whether values should be softly referenced
+     */
+    public ItemCache(final int maxSize, boolean softValues) {
+        this(maxSize, softValues, NO_TTL);
+    }
+
+    /**
+     * @param maxSize maximum number of entries; 0 disables the cache
+     * @param softValues whether values should be softly referenced
+     * @param ttlMillis time-to-live in milliseconds,
+     *                  or {@link #NO_TTL} to keep values until evicted
+     */
+    public ItemCache(final int maxSize, boolean softValues, long ttlMillis) {
+        if (maxSize < 0)
+            throw new IllegalArgumentException("maxSize cannot be negative: "+maxSize);
+        if (ttlMillis < 0)
+            throw new IllegalArgumentException("ttl cannot be negative: "+ttlMillis);
+        this.maxSize = maxSize;
+        this.softValues = softValues;
+        this.ttlNanos = ttlMillis * 1000000L;
+        // access-ordered, so that the eldest entry is the least recently used
+        this.entries = new LinkedHashMap<K,Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return the value for the given key, or null if it is not cached (or it has expired)
+     */
+    public synchronized V get(K key) {
+        purgeReclaimed();
+        Entry entry = entries.get(key);
+        if (entry != null && isExpired(entry)) {
+            entries.remove(key);
+            entry = null;
+        }
+        V value = entry == null? null : unwrap(entry);
+        if (value == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return value;
+    }
+
+    public synchronized void put(K key, V value) {
+        if (maxSize == 0) return;
+        purgeReclaimed();
+        entries.put(key, new Entry(
+                softValues? new SoftValue<K,V>(key, value, reclaimed) : value,
+                System.nanoTime()));
+    }
+
+    public synchronized void remove(K key) {
+        entries.remove(key);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        purgeReclaimed();
+    }
+
+    public synchronized int size() {
+        purgeReclaimed();
+        return entries.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getTtlMillis() {
+        return ttlNanos / 1000000L;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    private boolean isExpired(Entry entry) {
+        return ttlNanos != NO_TTL && System.nanoTime() - entry.timestamp >= ttlNanos;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V unwrap(Entry entry) {
+        return softValues? ((SoftValue<K,V>) entry.value).get() : (V) entry.value;
+    }
+
+    /**
+     * drops the entries whose values have been reclaimed by the GC
+     */
+    @SuppressWarnings("unchecked")
+    private void purgeReclaimed() {
+        SoftValue<K,V> ref;
+        while ((ref = (SoftValue<K,V>) reclaimed.poll()) != null) {
+            // the key may have been re-associated in the meantime
+            Entry entry = entries.get(ref.key);
+            if (entry != null && entry.value == ref) entries.remove(ref.key);
+        }
+    }
+
+    /**
+     * a cached value (or its soft reference), and when it was cached
+     */
+    private static class Entry {
+        final Object value;
+        final long timestamp;
+        Entry(Object value, long timestamp) {
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+    }
+
+    private static class SoftValue<K,V> extends SoftReference<V> {
+        final K key;
+        SoftValue(K key, V value, ReferenceQueue<V> queue) {
+            super(value, queue);
+            this.key = key;
+        }
+    }
+}
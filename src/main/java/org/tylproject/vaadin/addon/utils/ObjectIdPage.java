@@ -0,0 +1,196 @@
+/**
+ * Copyright (c) 2014 - Tyl Consulting s.a.s.
+ *
+ *    Authors: Edoardo Vacchi
+ *    Contributors: Marco Pancotti, Daniele Zonca
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.tylproject.vaadin.addon.utils;
+
+import org.bson.types.ObjectId;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A {@link org.tylproject.vaadin.addon.utils.Page} of ObjectIds,
+ * packed into a contiguous <code>int[]</code>, three words per id.
+ *
+ * Lookups go through an open-addressing hash table of slot numbers,
+ * so that {@link #indexOf(org.bson.types.ObjectId)} and {@link #contains(Object)}
+ * take constant time, and no per-id objects are retained.
+ * ObjectId instances are only created when an id is read back;
+ * lists returned by {@link #toImmutableList()} are views over the packed ids.
+ */
+public class ObjectIdPage extends Page<ObjectId> {
+
+    private static final int WORDS = 3;
+    private static final int BYTES = 12;
+
+    private final int[] words;
+    private final boolean[] filled;
+    /**
+     * slot number + 1 for each occupied bucket; 0 is an empty bucket
+     */
+    private int[] table;
+    private int tableEntries;
+
+    public ObjectIdPage(int pageSize, int offset, int collectionSize) {
+        super(pageSize, offset, collectionSize, false);
+        this.words = new int[pageSize * WORDS];
+        this.filled = new boolean[pageSize];
+        this.table = new int[tableCapacity(pageSize)];
+    }
+
+    @Override
+    protected void store(int slot, ObjectId value) {
+        byte[] bytes = value.toByteArray();
+        int base = slot * WORDS;
+        for (int w = 0; w < WORDS; w++) words[base + w] = word(bytes, w);
+        filled[slot] = true;
+
+        // overwritten slots leave stale buckets behind, that never match
+        if (tableEntries + 1 > table.length / 2) rehash();
+        insert(slot);
+    }
+
+    @Override
+    protected ObjectId load(int slot) {
+        if (!filled[slot]) return null;
+        byte[] bytes = new byte[BYTES];
+        int base = slot * WORDS;
+        for (int w = 0; w < WORDS; w++) {
+            int word = words[base + w];
+            bytes[w*4]   = (byte) (word >>> 24);
+            bytes[w*4+1] = (byte) (word >>> 16);
+            bytes[w*4+2] = (byte) (word >>> 8);
+            bytes[w*4+3] = (byte) word;
+        }
+        return new ObjectId(bytes);
+    }
+
+    @Override
+    public int indexOf(ObjectId value) {
+        int slot = find(value);
+        return slot < 0? -1 : slot + offset;
+    }
+
+    @Override
+    public boolean contains(Object value) {
+        return value instanceof ObjectId && find((ObjectId) value) >= 0;
+    }
+
+    @Override
+    public List<ObjectId> toImmutableList() {
+        return new PackedList(length());
+    }
+
+    /**
+     * @return the slot of the given id, or -1
+     */
+    private int find(ObjectId value) {
+        if (value == null) return -1;
+        byte[] bytes = value.toByteArray();
+        int w0 = word(bytes, 0), w1 = word(bytes, 1), w2 = word(bytes, 2);
+
+        int mask = table.length - 1;
+        for (int bucket = hash(w0, w1, w2) & mask; ; bucket = (bucket + 1) & mask) {
+            int entry = table[bucket];
+            if (entry == 0) return -1;
+            int slot = entry - 1;
+            int base = slot * WORDS;
+            if (words[base] == w0 && words[base+1] == w1 && words[base+2] == w2) return slot;
+        }
+    }
+
+    private void insert(int slot) {
+        int base = slot * WORDS;
+        int mask = table.length - 1;
+        int bucket = hash(words[base], words[base+1], words[base+2]) & mask;
+        while (table[bucket] != 0) bucket = (bucket + 1) & mask;
+        table[bucket] = slot + 1;
+        tableEntries++;
+    }
+
+    /**
+     * rebuilds the table from the filled slots, dropping the stale buckets
+     */
+    private void rehash() {
+        this.table = new int[table.length];
+        this.tableEntries = 0;
+        for (int slot = 0; slot < filled.length; slot++) {
+            if (filled[slot]) insert(slot);
+        }
+    }
+
+    static int word(byte[] bytes, int w) {
+        return ((bytes[w*4]   & 0xff) << 24)
+             | ((bytes[w*4+1] & 0xff) << 16)
+             | ((bytes[w*4+2] & 0xff) << 8)
+             |  (bytes[w*4+3] & 0xff);
+    }
+
+    static int hash(int w0, int w1, int w2) {
+        // the counter (last word) varies the most between ids
+        int h = w2 * 0x9E3779B9 + w1 * 31 + w0;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return a power of two, at least twice the given number of entries
+     */
+    static int tableCapacity(int entries) {
+        int capacity = 2;
+        while (capacity < entries * 2) capacity <<= 1;
+        return capacity;
+    }
+
+    /**
+     * an immutable view of the first ids of the page
+     */
+    private class PackedList extends AbstractList<ObjectId> implements RandomAccess {
+        private final int length;
+
+        PackedList(int length) {
+            this.length = length;
+        }
+
+        @Override
+        public ObjectId get(int index) {
+            if (index < 0 || index >= length)
+                throw new IndexOutOfBoundsException(index + " not within [0," + length + ")");
+            return load(index);
+        }
+
+        @Override
+        public int size() {
+            return length;
+        }
+
+        @Override
+        public int indexOf(Object o) {
+            if (!(o instanceof ObjectId)) return -1;
+            int slot = find((ObjectId) o);
+            return slot < length? slot : -1;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return indexOf(o) >= 0;
+        }
+    }
+}
@@ -30,20 +30,56 @@ public class Page<T> {
     public final int offset;
     public final int size;
     public final int maxIndex;
-    public final Set<T> valueSet = new HashSet<T>();
+    /**
+     * the values held by this page; a read-only view
+     * if a subclass provides its own storage
+     */
+    public final Set<T> valueSet;
     private int maxValidIndex;
-    private boolean valid;
-    private T[] values;
+    private volatile boolean valid;
+    private final T[] values;
+    private Object[] firstKey;
+    private Object[] lastKey;
 
     public Page(int pageSize, int offset, int collectionSize) {
+        this(pageSize, offset, collectionSize, true);
+    }
+
+    /**
+     * @param allocateValues false if a subclass provides its own storage,
+     *                       overriding {@link #store(int, Object)}, {@link #load(int)},
+     *                       {@link #indexOf(Object)}, {@link #contains(Object)}
+     *                       and {@link #toImmutableList()}
+     */
+    protected Page(int pageSize, int offset, int collectionSize, boolean allocateValues) {
         this.pageSize = pageSize;
         this.offset = offset;
         this.size = collectionSize;
         this.valid = true;
         this.maxIndex = offset+pageSize;
-        this.maxValidIndex = 0;
-        this.values = (T[]) new Object[pageSize];
-        Arrays.fill(values, null);
+        this.maxValidIndex = offset-1;
+        if (allocateValues) {
+            this.values = (T[]) new Object[pageSize];
+            this.valueSet = new HashSet<T>();
+        } else {
+            this.values = null;
+            this.valueSet = new AbstractSet<T>() {
+                @Override
+                public boolean contains(Object o) {
+                    return Page.this.contains(o);
+                }
+
+                @Override
+                public Iterator<T> iterator() {
+                    return toImmutableList().iterator();
+                }
+
+                @Override
+                public int size() {
+                    return length();
+                }
+            };
+        }
     }
 
     /**
@@ -57,15 +93,21 @@ public class Page<T> {
         if (index > this.maxIndex)
             throw new ArrayIndexOutOfBoundsException(index+">"+ maxIndex);
 
-        int actualIndex = index-offset;
-        this.values[actualIndex] = value;
-        this.valueSet.add(value);
+        store(index-offset, value);
 
         if (index > maxValidIndex)
             maxValidIndex = index;
 
     }
 
+    /**
+     * stores the given value at the given position, relative to the offset
+     */
+    protected void store(int actualIndex, T value) {
+        this.values[actualIndex] = value;
+        this.valueSet.add(value);
+    }
+
     public T get(int index) {
         if (index < offset || index > offset+pageSize)
             throw new IndexOutOfBoundsException(
@@ -73,7 +115,14 @@ public class Page<T> {
                             "index {} not within bounds [{},{}]",
                             offset, size));
 
-        return this.values[index-offset];
+        return load(index-offset);
+    }
+
+    /**
+     * @return the value at the given position, relative to the offset
+     */
+    protected T load(int actualIndex) {
+        return this.values[actualIndex];
     }
 
     /**
@@ -97,7 +146,45 @@ public class Page<T> {
         return pageSize;
     }
 
+    /**
+     * @return the index that follows the last element on this page
+     */
+    public int getEndIndex() {
+        return maxValidIndex+1;
+    }
+
+    /**
+     * records the sort keys of the first and the last element on this page,
+     * so that adjacent pages can be fetched by seeking from them
+     *
+     * @see org.tylproject.vaadin.addon.utils.SortKeys
+     */
+    public void setSortKeys(Object[] firstKey, Object[] lastKey) {
+        this.firstKey = firstKey;
+        this.lastKey = lastKey;
+    }
+
+    /**
+     * @return the sort key of the first element, or null if unknown
+     */
+    public Object[] getFirstKey() {
+        return firstKey;
+    }
+
+    /**
+     * @return the sort key of the last element, or null if unknown
+     */
+    public Object[] getLastKey() {
+        return lastKey;
+    }
+
 
+    /**
+     * @return the number of values held by this page
+     */
+    protected int length() {
+        return maxValidIndex-offset+1;
+    }
 
     public List<T> toImmutableList() {
         if (values.length > 0) {
@@ -137,7 +224,7 @@ public class Page<T> {
      */
     public List<T> subList(int startIndex, int numberOfItems) {
         List<T> idList = this.toImmutableList(); // indexed from 0, as required by the interface contract
-        return idList.subList(startIndex-offset, Math.min(startIndex-offset+numberOfItems, maxValidIndex));
+        return idList.subList(startIndex-offset, Math.min(startIndex-offset+numberOfItems, idList.size()));
     }
 
 }
@@ -0,0 +1,167 @@
+/**
+ * Copyright (c) 2014 - Tyl Consulting s.a.s.
+ *
+ *    Authors: Edoardo Vacchi
+ *    Contributors: Marco Pancotti, Daniele Zonca
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.tylproject.vaadin.addon.utils;
+
+import java.util.*;
+
+/**
+ * Holds up to a given number of {@link org.tylproject.vaadin.addon.utils.Page}s,
+ * evicting the least recently used one when full.
+ *
+ * Lookups may span several cached pages, as long as they are contiguous.
+ * The cache is meant to be invalidated as a whole, whenever
+ * the underlying collection or query changes.
+ *
+ * All the methods are synchronized, so that a cache may be shared
+ * by the threads that read from a container.
+ *
+ * @param <T> type of the values held by the pages
+ */
+public class PageCache<T> {
+
+    private final int maxPages;
+    private final LinkedHashMap<Integer, Page<T>> pages;
+
+    private long hits;
+    private long misses;
+
+    public PageCache(final int maxPages) {
+        if (maxPages < 1)
+            throw new IllegalArgumentException("a page cache must hold at least one page: "+maxPages);
+        this.maxPages = maxPages;
+        // access-ordered, so that the eldest entry is the least recently used
+        this.pages = new LinkedHashMap<Integer, Page<T>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Page<T>> eldest) {
+                return size() > maxPages;
+            }
+        };
+    }
+
+    /**
+     * adds the given page, replacing any page with the same offset
+     */
+    public synchronized void put(Page<T> page) {
+        pages.put(page.offset, page);
+    }
+
+    /**
+     * returns the values in the given range, merging contiguous pages when
+     * the range spans more than one. If the collection ends within
+     * the range, the result only includes the values up to the end.
+     *
+     * @return an immutable list of the values in the range,
+     *          or null if the range is not entirely cached
+     */
+    public synchronized List<T> find(int startIndex, int numberOfItems) {
+        List<T> result = new ArrayList<T>(numberOfItems);
+        int index = startIndex;
+        int endIndex = startIndex + numberOfItems;
+
+        while (index < endIndex) {
+            Page<T> page = pageContaining(index);
+            if (page == null) {
+                // nothing to fetch past the end of the collection
+                if (isPastEnd(index)) endIndex = index;
+                break;
+            }
+
+            int available = page.getEndIndex() - index;
+            int wanted = Math.min(available, endIndex - index);
+            result.addAll(page.subList(index, wanted));
+            index += wanted;
+
+            // the collection ends on this page
+            if (index < endIndex && page.getEndIndex() >= page.size) {
+                endIndex = index;
+            }
+        }
+
+        if (index < endIndex) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * @return the index of the given value within the cached pages, or -1
+     */
+    public synchronized int indexOf(T value) {
+        for (Page<T> page: pages.values()) {
+            if (page.isValid() && page.contains(value)) return page.indexOf(value);
+        }
+        return -1;
+    }
+
+    /**
+     * @return a valid page that holds the given index, or null
+     */
+    public synchronized Page<T> pageContaining(int index) {
+        for (Page<T> page: new ArrayList<Page<T>>(pages.values())) {
+            if (page.isValid() && index >= page.offset && index < page.getEndIndex()) {
+                // mark as recently used
+                pages.get(page.offset);
+                return page;
+            }
+        }
+        return null;
+    }
+
+    private boolean isPastEnd(int index) {
+        for (Page<T> page: pages.values()) {
+            if (page.isValid() && index >= page.size)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the valid pages currently held, from the least to the most recently used
+     */
+    public synchronized Collection<Page<T>> pages() {
+        List<Page<T>> result = new ArrayList<Page<T>>();
+        for (Page<T> page: pages.values()) {
+            if (page.isValid()) result.add(page);
+        }
+        return result;
+    }
+
+    /**
+     * discards all the cached pages
+     */
+    public synchronized void invalidate() {
+        for (Page<T> page: pages.values()) page.setInvalid();
+        pages.clear();
+    }
+
+    public int getMaxPages() {
+        return maxPages;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright (c) 2014 - Tyl Consulting s.a.s.
+ *
+ *    Authors: Edoardo Vacchi
+ *    Contributors: Marco Pancotti, Daniele Zonca
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.tylproject.vaadin.addon.utils;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A set of non-negative positions, with order statistics in O(log n):
+ * the number of positions before a given one, the n-th position in the set,
+ * and the n-th position <em>not</em> in the set.
+ *
+ * It is backed by a bit set and a Fenwick tree of primitive counters,
+ * which grows (doubling) to hold the greatest position added so far;
+ * no value is ever boxed.
+ */
+public class PositionSet {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final BitSet present = new BitSet();
+    /**
+     * 1-based Fenwick tree: tree[i] counts the positions in (i - lowbit(i), i],
+     * shifted by one (position p is stored at index p + 1)
+     */
+    private int[] tree = new int[INITIAL_CAPACITY + 1];
+    private int capacity = INITIAL_CAPACITY;
+    private int size = 0;
+
+    /**
+     * @return false if the position was already in the set
+     */
+    public boolean add(int position) {
+        if (position < 0) throw new IllegalArgumentException("negative position: "+position);
+        if (present.get(position)) return false;
+        if (position >= capacity) grow(position);
+        present.set(position);
+        update(position, 1);
+        size++;
+        return true;
+    }
+
+    /**
+     * @return false if the position was not in the set
+     */
+    public boolean remove(int position) {
+        if (position < 0 || !present.get(position)) return false;
+        present.clear(position);
+        update(position, -1);
+        size--;
+        return true;
+    }
+
+    public boolean contains(int position) {
+        return position >= 0 && present.get(position);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        present.clear();
+        Arrays.fill(tree, 0);
+        size = 0;
+    }
+
+    /**
+     * @return the number of positions in the set that are less than the given one
+     */
+    public int countBefore(int position) {
+        int count = 0;
+        for (int i = Math.min(position, capacity); i > 0; i -= i & -i) count += tree[i];
+        return count;
+    }
+
+    /**
+     * @return the n-th (0-based) position in the set, in ascending order,
+     *          or -1 if the set holds n positions or less
+     */
+    public int select(int n) {
+        if (n < 0 || n >= size) return -1;
+        int index = 0;
+        int remaining = n + 1;
+        for (int step = capacity; step > 0; step >>= 1) {
+            int next = index + step;
+            if (next <= capacity && tree[next] < remaining) {
+                index = next;
+                remaining -= tree[next];
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return the n-th (0-based) non-negative position that is <em>not</em> in the set;
+     *          e.g., for the set {1, 2}, selectAbsent(1) is 3
+     */
+    public int selectAbsent(int n) {
+        if (n < 0) throw new IllegalArgumentException("negative rank: "+n);
+        // past the capacity, no position is in the set
+        if (n >= capacity - size) return n + size;
+
+        int index = 0;
+        int remaining = n + 1;
+        for (int step = capacity; step > 0; step >>= 1) {
+            int next = index + step;
+            // a node at (index + step) spans exactly step positions
+            if (next <= capacity && step - tree[next] < remaining) {
+                index = next;
+                remaining -= step - tree[next];
+            }
+        }
+        return index;
+    }
+
+    private void update(int position, int delta) {
+        for (int i = position + 1; i <= capacity; i += i & -i) tree[i] += delta;
+    }
+
+    /**
+     * doubles the capacity until it holds the given position,
+     * and rebuilds the tree in linear time
+     */
+    private void grow(int position) {
+        int newCapacity = capacity;
+        while (newCapacity <= position) {
+            if (newCapacity >= 1 << 30) throw new IllegalArgumentException("position too large: "+position);
+            newCapacity <<= 1;
+        }
+
+        int[] newTree = new int[newCapacity + 1];
+        for (int p = present.nextSetBit(0); p >= 0; p = present.nextSetBit(p + 1)) newTree[p + 1] = 1;
+        for (int i = 1; i <= newCapacity; i++) {
+            int parent = i + (i & -i);
+            if (parent <= newCapacity) newTree[parent] += newTree[i];
+        }
+
+        this.tree = newTree;
+        this.capacity = newCapacity;
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) 2014 - Tyl Consulting s.a.s.
+ *
+ *    Authors: Edoardo Vacchi
+ *    Contributors: Marco Pancotti, Daniele Zonca
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.tylproject.vaadin.addon.utils;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers which beans have been loaded under a projection,
+ * and which fields were loaded for each of them;
+ * the other properties of such beans only hold default values.
+ *
+ * Beans are told apart by identity, regardless of their equals(),
+ * and they are only weakly referenced: a bean that is no longer used
+ * is forgotten once the garbage collector reclaims it.
+ *
+ * The registry is thread-safe.
+ */
+public class ProjectedBeans {
+
+    private final Map<IdentityKey, Set<String>> fields = new HashMap<IdentityKey, Set<String>>();
+    private final ReferenceQueue<Object> reclaimed = new ReferenceQueue<Object>();
+
+    /**
+     * records that only the given fields have been loaded into the given bean
+     */
+    public synchronized void put(Object bean, Set<String> loadedFields) {
+        purgeReclaimed();
+        fields.put(new IdentityKey(bean, reclaimed), loadedFields);
+    }
+
+    /**
+     * @return the fields loaded into the given bean,
+     *          or null if it has not been loaded under a projection
+     */
+    public synchronized Set<String> get(Object bean) {
+        purgeReclaimed();
+        return fields.get(new IdentityKey(bean, null));
+    }
+
+    public synchronized int size() {
+        purgeReclaimed();
+        return fields.size();
+    }
+
+    private void purgeReclaimed() {
+        Object ref;
+        while ((ref = reclaimed.poll()) != null) fields.remove(ref);
+    }
+
+    private static class IdentityKey extends WeakReference<Object> {
+        private final int hash;
+
+        IdentityKey(Object referent, ReferenceQueue<Object> queue) {
+            super(referent, queue);
+            this.hash = System.identityHashCode(referent);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) return true;
+            if (!(o instanceof IdentityKey)) return false;
+            Object referent = get();
+            return referent != null && referent == ((IdentityKey) o).get();
+        }
+    }
+}
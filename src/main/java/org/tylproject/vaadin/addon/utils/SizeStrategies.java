@@ -0,0 +1,218 @@
+/**
+ * Copyright (c) 2014 - Tyl Consulting s.a.s.
+ *
+ *    Authors: Edoardo Vacchi
+ *    Contributors: Marco Pancotti, Daniele Zonca
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.tylproject.vaadin.addon.utils;
+
+import com.mongodb.CommandResult;
+
+/**
+ * Factories for the available {@link SizeStrategy} implementations.
+ *
+ * All of them are thread-safe: the stateful ones guard their state
+ * with their own monitor, which is never held while counting.
+ */
+public final class SizeStrategies {
+
+    private SizeStrategies() {}
+
+    /**
+     * counts all the matching documents. This is the default
+     */
+    public static SizeStrategy exact() {
+        return new Exact();
+    }
+
+    /**
+     * counts at most <code>cap</code> documents. When there are more,
+     * the size is reported as <code>cap</code>, and it is not exact:
+     * this can be shown as, e.g., "10,000+"
+     */
+    public static SizeStrategy capped(long cap) {
+        if (cap < 1) throw new IllegalArgumentException("cap must be positive: "+cap);
+        return new Capped(cap);
+    }
+
+    /**
+     * reports the document count from the metadata of the collection
+     * when no filter is applied; otherwise, counts exactly
+     */
+    public static SizeStrategy estimated() {
+        return estimated(exact());
+    }
+
+    /**
+     * reports the document count from the metadata of the collection
+     * when no filter is applied; otherwise, delegates to the given strategy
+     */
+    public static SizeStrategy estimated(SizeStrategy filtered) {
+        return new Estimated(filtered);
+    }
+
+    /**
+     * never counts: the size is the number of documents read so far
+     * plus <code>margin</code>, so that a Table can still scroll further;
+     * it becomes exact once the end of the collection has been read
+     */
+    public static SizeStrategy growing(int margin) {
+        if (margin < 1) throw new IllegalArgumentException("margin must be positive: "+margin);
+        return new Growing(margin);
+    }
+
+
+    static class Exact implements SizeStrategy {
+        @Override
+        public long size(CompiledQuery query) {
+            return query.count();
+        }
+
+        @Override
+        public boolean isExact(CompiledQuery query) {
+            return true;
+        }
+
+        @Override
+        public boolean onRead(CompiledQuery query, int offset, int requested, int fetched) {
+            return false;
+        }
+    }
+
+    static class Capped implements SizeStrategy {
+        private final long cap;
+        /** guarded by this */
+        private String fingerprint;
+        private boolean exact = true;
+
+        Capped(long cap) {
+            this.cap = cap;
+        }
+
+        @Override
+        public long size(CompiledQuery query) {
+            // one more than the cap tells whether there are more
+            long count = query.getCollection().getCount(query.getFilter(), null, cap + 1, 0);
+            synchronized (this) {
+                this.fingerprint = query.getFingerprint();
+                this.exact = count <= cap;
+            }
+            return Math.min(count, cap);
+        }
+
+        @Override
+        public synchronized boolean isExact(CompiledQuery query) {
+            return exact && query.getFingerprint().equals(fingerprint);
+        }
+
+        @Override
+        public boolean onRead(CompiledQuery query, int offset, int requested, int fetched) {
+            return false;
+        }
+    }
+
+    static class Estimated implements SizeStrategy {
+        private final SizeStrategy filtered;
+
+        Estimated(SizeStrategy filtered) {
+            this.filtered = filtered;
+        }
+
+        private boolean isFiltered(CompiledQuery query) {
+            return !query.getFilter().keySet().isEmpty();
+        }
+
+        @Override
+        public long size(CompiledQuery query) {
+            if (isFiltered(query)) return filtered.size(query);
+
+            CommandResult stats = query.getCollection().getStats();
+            Object count = stats.get("count");
+            // e.g., the collection does not exist yet
+            if (!stats.ok() || !(count instanceof Number)) return query.count();
+            return ((Number) count).longValue();
+        }
+
+        @Override
+        public boolean isExact(CompiledQuery query) {
+            // metadata may be off after unclean shutdowns, or on sharded clusters
+            return isFiltered(query) && filtered.isExact(query);
+        }
+
+        @Override
+        public boolean onRead(CompiledQuery query, int offset, int requested, int fetched) {
+            return isFiltered(query) && filtered.onRead(query, offset, requested, fetched);
+        }
+    }
+
+    static class Growing implements SizeStrategy {
+        private final int margin;
+        /** all of the following are guarded by this */
+        private String fingerprint;
+        /** the number of documents known to exist */
+        private long known;
+        /** an upper bound to the number of documents, or -1 */
+        private long bound;
+        private boolean complete;
+
+        Growing(int margin) {
+            this.margin = margin;
+        }
+
+        private void resetIfChanged(CompiledQuery query) {
+            if (query.getFingerprint().equals(fingerprint)) return;
+            this.fingerprint = query.getFingerprint();
+            this.known = 0;
+            this.bound = -1;
+            this.complete = false;
+        }
+
+        @Override
+        public synchronized long size(CompiledQuery query) {
+            resetIfChanged(query);
+            if (complete) return known;
+            long provisional = known + margin;
+            return bound < 0? provisional : Math.min(provisional, bound);
+        }
+
+        @Override
+        public synchronized boolean isExact(CompiledQuery query) {
+            resetIfChanged(query);
+            return complete;
+        }
+
+        @Override
+        public synchronized boolean onRead(CompiledQuery query, int offset, int requested, int fetched) {
+            resetIfChanged(query);
+            if (complete) return false;
+
+            long before = size(query);
+            long end = offset + fetched;
+            if (fetched < requested && (fetched > 0 || offset <= known)) {
+                // the cursor has reached the end of the collection
+                known = end;
+                complete = true;
+            } else if (fetched < requested) {
+                // read past the end: the collection ends somewhere before offset
+                bound = bound < 0? offset : Math.min(bound, offset);
+            } else {
+                known = Math.max(known, end);
+            }
+            return size(query) != before;
+        }
+    }
+}
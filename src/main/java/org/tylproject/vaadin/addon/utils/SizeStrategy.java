@@ -0,0 +1,55 @@
+/**
+ * Copyright (c) 2014 - Tyl Consulting s.a.s.
+ *
+ *    Authors: Edoardo Vacchi
+ *    Contributors: Marco Pancotti, Daniele Zonca
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.tylproject.vaadin.addon.utils;
+
+/**
+ * Decides how the size of a container is determined.
+ *
+ * An exact count may be expensive on large collections;
+ * a strategy may instead report a bound or an estimate,
+ * as long as it tells whether the value is exact (see {@link #isExact(CompiledQuery)}).
+ *
+ * Strategies may keep state about the query they are counting:
+ * an instance must not be shared between containers. It must be thread-safe,
+ * though, as a container may be read from several threads at once.
+ * See {@link SizeStrategies} for the available implementations.
+ */
+public interface SizeStrategy {
+
+    /**
+     * @return the number of documents to report for the given query
+     */
+    long size(CompiledQuery query);
+
+    /**
+     * @return true if the value last returned by {@link #size(CompiledQuery)}
+     *          for the given query is the exact number of matching documents
+     */
+    boolean isExact(CompiledQuery query);
+
+    /**
+     * notifies the strategy that <code>requested</code> documents of the given query
+     * were read from the given offset, and <code>fetched</code> were returned
+     *
+     * @return true if the size to report has changed as a consequence
+     */
+    boolean onRead(CompiledQuery query, int offset, int requested, int fetched);
+}
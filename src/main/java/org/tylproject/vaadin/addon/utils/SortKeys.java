@@ -0,0 +1,193 @@
+/**
+ * Copyright (c) 2014 - Tyl Consulting s.a.s.
+ *
+ *    Authors: Edoardo Vacchi
+ *    Contributors: Marco Pancotti, Daniele Zonca
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.tylproject.vaadin.addon.utils;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Utilities to build keyset ("seek") queries over a sort specification.
+ *
+ * A <em>sort key</em> is the array of the values that a document
+ * holds for each field of a sort object, in the same order.
+ * When the sort object ends with the unique <code>_id</code> field,
+ * sort keys define a total order over the documents of a collection,
+ * so that a position can be expressed as "all the documents
+ * before/after this key", and be answered through the sort index
+ * instead of walking the collection with <code>skip()</code>.
+ *
+ * Predicates assume sort fields hold scalar values of a consistent type;
+ * null and missing values are handled according to MongoDB's
+ * sort order (they come first in ascending order).
+ * Keys that contain embedded documents or arrays are not seekable
+ * (see {@link #isSeekable(Object[])}).
+ */
+public final class SortKeys {
+
+    public static final String ID = "_id";
+
+    private SortKeys() {}
+
+    /**
+     * @return a copy of the given sort object (possibly null) with
+     *          <code>_id</code> appended as a tie-break, unless already present
+     */
+    public static DBObject withTieBreak(DBObject sortObject) {
+        BasicDBObject result = new BasicDBObject();
+        if (sortObject != null) result.putAll(sortObject);
+        if (!result.containsField(ID)) result.put(ID, 1);
+        return result;
+    }
+
+    /**
+     * @return the given sort object with all the directions flipped
+     */
+    public static DBObject reverse(DBObject sortObject) {
+        BasicDBObject result = new BasicDBObject();
+        for (String field: sortObject.keySet()) {
+            result.put(field, -direction(sortObject, field));
+        }
+        return result;
+    }
+
+    /**
+     * @return a projection that includes only the fields of the sort object,
+     *          so that it can be answered from the sort index alone
+     */
+    public static DBObject projection(DBObject sortObject) {
+        BasicDBObject result = new BasicDBObject(ID, 1);
+        for (String field: sortObject.keySet()) {
+            result.put(field, 1);
+        }
+        return result;
+    }
+
+    /**
+     * @return the sort key of the given document, i.e. the values
+     *          of the fields in the sort object, in order.
+     *          Dotted paths are resolved through embedded documents.
+     */
+    public static Object[] keyOf(DBObject document, DBObject sortObject) {
+        Object[] key = new Object[sortObject.keySet().size()];
+        int i = 0;
+        for (String field: sortObject.keySet()) {
+            key[i++] = valueAt(document, field);
+        }
+        return key;
+    }
+
+    /**
+     * @return true if the given key can be used in a range predicate;
+     *          i.e., if it contains no embedded documents or arrays
+     */
+    public static boolean isSeekable(Object[] key) {
+        if (key == null) return false;
+        for (Object value: key) {
+            if (value instanceof DBObject || value instanceof Iterable) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return a predicate that matches all and only the documents that
+     *          follow the given key in the order defined by sortObject
+     */
+    public static DBObject after(DBObject sortObject, Object[] key) {
+        List<String> fields = new ArrayList<String>(sortObject.keySet());
+        BasicDBList clauses = new BasicDBList();
+
+        for (int i = 0; i < fields.size(); i++) {
+            String field = fields.get(i);
+            Object condition = follows(key[i], direction(sortObject, field));
+            // no value can follow this key component: skip the clause
+            if (condition == null) continue;
+
+            BasicDBObject clause = new BasicDBObject();
+            for (int j = 0; j < i; j++) {
+                clause.put(fields.get(j), key[j]);
+            }
+            clause.put(field, condition);
+            clauses.add(clause);
+        }
+
+        if (clauses.size() == 1) return (DBObject) clauses.get(0);
+        // an empty $or is not valid: match nothing
+        if (clauses.isEmpty()) return new BasicDBObject(ID, new BasicDBObject("$exists", false));
+        return new BasicDBObject("$or", clauses);
+    }
+
+    /**
+     * @return a predicate that matches all and only the documents that
+     *          precede the given key in the order defined by sortObject
+     */
+    public static DBObject before(DBObject sortObject, Object[] key) {
+        return after(reverse(sortObject), key);
+    }
+
+    /**
+     * @return the conjunction of the given predicates, without altering them
+     */
+    public static DBObject and(DBObject left, DBObject right) {
+        if (left == null || left.keySet().isEmpty()) return right;
+        if (right == null || right.keySet().isEmpty()) return left;
+        BasicDBList operands = new BasicDBList();
+        operands.add(left);
+        operands.add(right);
+        return new BasicDBObject("$and", operands);
+    }
+
+    /**
+     * the condition on a single field for the values that follow
+     * the given value in the given direction, or null
+     * if no value follows it
+     */
+    private static Object follows(Object value, int direction) {
+        if (direction > 0) {
+            // null and missing values come first
+            return value == null ?
+                    new BasicDBObject("$ne", null)
+                    : new BasicDBObject("$gt", value);
+        } else {
+            // null and missing values come last:
+            // "not greater or equal" includes them
+            return value == null ?
+                    null
+                    : new BasicDBObject("$not", new BasicDBObject("$gte", value));
+        }
+    }
+
+    private static int direction(DBObject sortObject, String field) {
+        Object d = sortObject.get(field);
+        return d instanceof Number && ((Number) d).intValue() < 0 ? -1 : 1;
+    }
+
+    private static Object valueAt(DBObject document, String path) {
+        Object current = document;
+        for (String segment: path.split("\\.")) {
+            if (!(current instanceof DBObject)) return null;
+            current = ((DBObject) current).get(segment);
+        }
+        return current;
+    }
+}
@@ -0,0 +1,46 @@
+package org.tylproject.data.mongo;
+
+import org.bson.types.ObjectId;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
+
+/**
+ * An entity with optimistic locking
+ */
+public class Note {
+    @Id
+    ObjectId id;
+    @Version
+    Long version;
+    String text;
+
+    public Note() {}
+
+    public Note(String text) {
+        this.text = text;
+    }
+
+    public ObjectId getId() {
+        return id;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public void setText(String text) {
+        this.text = text;
+    }
+
+    @Override
+    public String toString() {
+        return "Note{" +
+                "text='" + text + '\'' +
+                ", version=" + version +
+                '}';
+    }
+}
@@ -0,0 +1,69 @@
+package org.tylproject.vaadin.addon.mongo;
+
+import org.junit.Test;
+import org.tylproject.vaadin.addon.utils.AdaptivePageSize;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Decisions of {@link AdaptivePageSize}
+ */
+public class AdaptivePageSizeTest {
+
+    @Test
+    public void testScrollingGrows() {
+        AdaptivePageSize sizer = new AdaptivePageSize(10, 10, 40);
+        assertEquals(10, sizer.record(0, 10));
+        assertEquals(20, sizer.record(10, 10));
+        assertEquals(40, sizer.record(20, 10));
+        assertEquals(40, sizer.record(30, 10));
+
+        assertEquals(3, sizer.getSequentialCount());
+        assertEquals(2, sizer.getGrowCount());
+        assertFalse(sizer.isBackward());
+    }
+
+    @Test
+    public void testJumpsShrink() {
+        AdaptivePageSize sizer = new AdaptivePageSize(40, 10, 40);
+        sizer.record(0, 10);
+        assertEquals(20, sizer.record(100, 10));
+        assertEquals(10, sizer.record(500, 10));
+        assertEquals(10, sizer.record(50, 10));
+
+        assertEquals(3, sizer.getRandomCount());
+        assertEquals(2, sizer.getShrinkCount());
+    }
+
+    @Test
+    public void testRepeatedRangeIsIgnored() {
+        AdaptivePageSize sizer = new AdaptivePageSize(10, 10, 40);
+        sizer.record(0, 10);
+        sizer.record(0, 10);
+        assertEquals(0, sizer.getSequentialCount());
+        assertEquals(0, sizer.getRandomCount());
+    }
+
+    @Test
+    public void testBackward() {
+        AdaptivePageSize sizer = new AdaptivePageSize(10, 10, 40);
+        sizer.record(100, 10);
+        sizer.record(90, 10);
+        assertTrue(sizer.isBackward());
+    }
+
+    @Test
+    public void testNeverSmallerThanTheRange() {
+        AdaptivePageSize sizer = new AdaptivePageSize(20, 5, 20);
+        assertEquals(50, sizer.record(0, 50));
+        // out of bounds initial sizes are clamped
+        assertEquals(5, new AdaptivePageSize(1, 5, 20).getPageSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBounds() {
+        new AdaptivePageSize(10, 20, 10);
+    }
+}
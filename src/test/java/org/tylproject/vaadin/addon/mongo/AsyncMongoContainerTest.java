@@ -0,0 +1,111 @@
+package org.tylproject.vaadin.addon.mongo;
+
+import com.vaadin.data.Container;
+import com.vaadin.data.util.filter.SimpleStringFilter;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+import org.tylproject.data.mongo.Customer;
+import org.tylproject.vaadin.addon.AsyncMongoContainer;
+import org.tylproject.vaadin.addon.MongoContainer;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Reads of an {@link AsyncMongoContainer} return placeholders until the data has arrived
+ */
+public class AsyncMongoContainerTest extends BaseTest {
+
+    static class CountingListener implements Container.ItemSetChangeListener {
+        int events = 0;
+
+        @Override
+        public void containerItemSetChange(Container.ItemSetChangeEvent event) {
+            events++;
+        }
+    }
+
+    private final ReadAheadTest.DeferredExecutor fetcher = new ReadAheadTest.DeferredExecutor();
+    private final Executor sameThread = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private List<ObjectId> expectedIds() {
+        MongoContainer<Customer> mc = builder().withPageSize(100).build();
+        return mc.getItemIds(0, mc.size());
+    }
+
+    @Test
+    public void testFirstPageIsFetchedInBackground() {
+        AsyncMongoContainer<Customer> mc = builder().buildAsync(fetcher, sameThread);
+        CountingListener listener = new CountingListener();
+        mc.addItemSetChangeListener(listener);
+
+        assertEquals(0, mc.size());
+        fetcher.runAll();
+
+        assertTrue(listener.events > 0);
+        assertEquals(7, mc.size());
+        assertEquals(expectedIds().subList(0, 3), mc.getItemIds(0, 3));
+    }
+
+    @Test
+    public void testPlaceholders() {
+        AsyncMongoContainer<Customer> mc = builder().buildAsync(fetcher, sameThread);
+        fetcher.runAll();
+
+        List<ObjectId> placeholders = mc.getItemIds(3, 3);
+        assertEquals(3, placeholders.size());
+        for (ObjectId id: placeholders) {
+            assertTrue(mc.isPlaceholder(id));
+            assertTrue(mc.containsId(id));
+            assertNull(mc.getItem(id).getBean().getFirstName());
+        }
+        assertEquals(4, mc.indexOfId(placeholders.get(1)));
+        assertEquals(placeholders.get(1), mc.getIdByIndex(4));
+
+        CountingListener listener = new CountingListener();
+        mc.addItemSetChangeListener(listener);
+        fetcher.runAll();
+
+        assertEquals(1, listener.events);
+        List<ObjectId> ids = mc.getItemIds(3, 3);
+        assertEquals(expectedIds().subList(3, 6), ids);
+        assertNotNull(mc.getItem(ids.get(0)).getBean().getFirstName());
+        assertFalse(mc.isPlaceholder(placeholders.get(0)));
+    }
+
+    @Test
+    public void testRangeIsFetchedOnce() {
+        AsyncMongoContainer<Customer> mc = builder().buildAsync(fetcher, sameThread);
+        fetcher.runAll();
+
+        mc.getItemIds(3, 3);
+        mc.getItemIds(3, 3);
+        mc.getIdByIndex(3);
+        assertEquals(1, fetcher.tasks.size());
+    }
+
+    @Test
+    public void testStaleFetchIsNotAnnounced() {
+        AsyncMongoContainer<Customer> mc = builder().buildAsync(fetcher, sameThread);
+        fetcher.runAll();
+        mc.getItemIds(3, 3);
+
+        mc.addContainerFilter(new SimpleStringFilter("firstName", "i", false, false));
+        CountingListener listener = new CountingListener();
+        mc.addItemSetChangeListener(listener);
+        fetcher.runAll();
+        assertEquals(0, listener.events);
+
+        // the filtered container only holds 5 items
+        mc.size();
+        fetcher.runAll();
+        assertEquals(5, mc.size());
+    }
+}
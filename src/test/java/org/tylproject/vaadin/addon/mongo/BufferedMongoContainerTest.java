@@ -5,18 +5,41 @@ import junit.framework.Assert;
 import org.bson.types.ObjectId;
 import org.junit.Before;
 import org.junit.Test;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.tylproject.data.mongo.Customer;
+import org.tylproject.data.mongo.Note;
+import org.tylproject.data.mongo.Person;
 import org.tylproject.vaadin.addon.BufferedMongoContainer;
 import org.tylproject.vaadin.addon.MongoContainer;
 
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.vaadin.data.Buffered;
+import com.vaadin.data.util.filter.SimpleStringFilter;
+import org.springframework.data.mongodb.core.mapping.event.BeforeSaveEvent;
+import org.springframework.data.mongodb.core.query.Update;
+import org.tylproject.vaadin.addon.BulkCommitException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
 import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.fail;
 import static junit.framework.TestCase.assertEquals;
 import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
 import static org.junit.Assert.assertNotEquals;
 import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
 
 /**
  * Created by evacchi on 12/11/14.
@@ -43,4 +66,321 @@ public class BufferedMongoContainerTest extends BaseTest {
         assertNotEquals(initSize, mc.size());
     }
 
+    @Test
+    public void testPendingPositions() {
+        assertPendingPositions(builder().buildBuffered());
+    }
+
+    @Test
+    public void testPendingPositionsExcludedByLookup() {
+        // every pending removal goes to the temporary collection
+        assertPendingPositions(builder().withRemovalExclusionThreshold(0).buildBuffered());
+    }
+
+    @Test
+    public void testTemporaryCollectionsAreDropped() {
+        DBCollection customers = mongoOps.getCollection(mongoOps.getCollectionName(Customer.class));
+        String prefix = customers.getName() + ".pendingRemovals.";
+        // left behind by a session that expired two days ago
+        ObjectId expired = new ObjectId(new Date(System.currentTimeMillis() - 2 * 24 * 3600 * 1000L));
+        customers.getDB().getCollection(prefix + expired).insert(new BasicDBObject("_id", new ObjectId()));
+
+        BufferedMongoContainer<Customer> mc = builder().withRemovalExclusionThreshold(0).buildBuffered();
+        mc.removeItem(mc.getIdByIndex(0));
+        mc.getItemIds(0, 3);
+
+        List<String> temporary = new ArrayList<String>();
+        for (String name: customers.getDB().getCollectionNames()) {
+            if (name.startsWith(prefix)) temporary.add(name);
+        }
+        assertEquals(1, temporary.size());
+        assertFalse(temporary.contains(prefix + expired));
+
+        mc.close();
+        assertFalse(customers.getDB().collectionExists(temporary.get(0)));
+        // the removal is still pending
+        assertTrue(mc.isModified());
+    }
+
+    @Test
+    public void testPendingPositionsAfterSort() {
+        BufferedMongoContainer<Customer> mc = builder().buildBuffered();
+        List<ObjectId> stored = mc.getItemIds(0, mc.size());
+        mc.removeItem(stored.get(1));
+        mc.removeItem(stored.get(3));
+
+        Object[] properties = { "lastName" };
+        boolean[] ascending = { false };
+        mc.sort(properties, ascending);
+
+        MongoContainer<Customer> expected = builder().build();
+        expected.sort(properties, ascending);
+        List<ObjectId> sorted = new ArrayList<ObjectId>(expected.getItemIds(0, expected.size()));
+        sorted.remove(stored.get(1));
+        sorted.remove(stored.get(3));
+
+        // no page has been fetched yet: the positions are ranked under the new order
+        for (int i = 0; i < sorted.size(); i++) {
+            assertEquals(i, mc.indexOfId(sorted.get(i)));
+        }
+        assertEquals(sorted, mc.getItemIds(0, mc.size()));
+    }
+
+    @Test
+    public void testRemovalFilteredOut() {
+        BufferedMongoContainer<Customer> mc = builder().buildBuffered();
+        List<ObjectId> stored = mc.getItemIds(0, mc.size());
+        // Susan
+        mc.removeItem(stored.get(stored.size() - 1));
+        ObjectId added = mc.addEntity(new Customer("Austin", "New"));
+
+        // the removed item does not satisfy the filter anymore
+        mc.addContainerFilter(new SimpleStringFilter("firstName", "Austin", false, true));
+
+        assertEquals(3, mc.size());
+        assertEquals(stored.get(0), mc.getIdByIndex(0));
+        assertEquals(stored.get(1), mc.getIdByIndex(1));
+        assertEquals(added, mc.getIdByIndex(2));
+        assertEquals(Arrays.asList(stored.get(0), stored.get(1), added), mc.getItemIds(0, 3));
+    }
+
+    private void assertPendingPositions(BufferedMongoContainer<Customer> mc) {
+        List<ObjectId> stored = mc.getItemIds(0, mc.size());
+
+        // remove the 2nd and the 4th item
+        mc.removeItem(stored.get(1));
+        mc.removeItem(stored.get(3));
+        assertEquals(stored.get(0), mc.getIdByIndex(0));
+        assertEquals(stored.get(2), mc.getIdByIndex(1));
+        assertEquals(stored.get(4), mc.getIdByIndex(2));
+        assertEquals(2, mc.indexOfId(stored.get(4)));
+
+        ObjectId first = mc.addEntity(new Customer("New", "First"));
+        ObjectId second = mc.addEntity(new Customer("New", "Second"));
+        ObjectId third = mc.addEntity(new Customer("New", "Third"));
+        mc.removeItem(second);
+
+        int storedSize = stored.size() - 2;
+        assertEquals(storedSize + 2, mc.size());
+        assertEquals(storedSize, mc.indexOfId(first));
+        assertEquals(storedSize + 1, mc.indexOfId(third));
+        assertEquals(first, mc.getIdByIndex(storedSize));
+        assertEquals(third, mc.getIdByIndex(storedSize + 1));
+        assertNull(mc.getIdByIndex(storedSize + 2));
+        assertEquals(Arrays.asList(first, third), mc.getItemIds(storedSize, 3));
+    }
+
+    @Test
+    public void testBulkCommit() {
+        final BufferedMongoContainer<Customer> mc =
+                builder().withCommitChunkSize(2).buildBuffered();
+        int initSize = mc.size();
+
+        for (int i = 0; i < 5; i++) mc.addEntity(new Customer("New", "Customer " + i));
+
+        // an item that has not been changed is not written at all:
+        // a document that has been removed meanwhile is not written again
+        ObjectId updatedId = mc.getIdByIndex(0);
+        mc.updateItem(updatedId);
+        mongoOps.remove(mongoOps.findById(updatedId, Customer.class));
+
+        ObjectId removedId1 = mc.getIdByIndex(1);
+        ObjectId removedId2 = mc.getIdByIndex(2);
+        mc.removeItem(removedId1);
+        mc.removeItem(removedId2);
+
+        mc.commit();
+
+        assertFalse(mc.isModified());
+        assertEquals(initSize + 5 - 2 - 1, mc.size());
+        assertEquals(5, mongoOps.find(query(where("firstName").is("New")), Customer.class).size());
+        assertNull(mongoOps.findById(updatedId, Customer.class));
+        assertNull(mongoOps.findById(removedId1, Customer.class));
+        assertNull(mongoOps.findById(removedId2, Customer.class));
+    }
+
+    @Test
+    public void testFailedWritesRemainPending() {
+        final BufferedMongoContainer<Customer> mc =
+                builder().withCommitChunkSize(2).buildBuffered();
+        int initSize = mc.size();
+
+        Customer duplicate = new Customer("Duplicate", "Customer");
+        ObjectId duplicateId = mc.addEntity(duplicate);
+        mc.addEntity(new Customer("New", "Customer"));
+        // another client inserts a document with the same id
+        mongoOps.insert(duplicate);
+
+        try {
+            mc.commit();
+            fail("the duplicate insert should fail");
+        } catch (Buffered.SourceException ex) {
+            BulkCommitException bulkEx = (BulkCommitException) ex.getCause();
+            assertEquals(1, bulkEx.getFailures().size());
+            assertEquals(Collections.singletonList(duplicateId), bulkEx.getFailures().get(0).getItemIds());
+        }
+
+        // the other insert went through
+        assertEquals(1, mongoOps.find(query(where("firstName").is("New")), Customer.class).size());
+        assertTrue(mc.isModified());
+
+        mc.discard();
+        assertEquals(initSize + 2, mc.size());
+    }
+
+    @Test
+    public void testOnlyChangedFieldsAreWritten() {
+        Person person = new Person("Before", null);
+        mongoOps.insert(person);
+        try {
+            final BufferedMongoContainer<Person> mc =
+                    MongoContainer.Builder.forEntity(Person.class, mongoOps).buildBuffered();
+            ObjectId id = mc.firstItemId();
+            mc.updateItem(id).getItemProperty("name").setValue("After");
+
+            // another client sets a field that the container does not know about
+            mongoOps.updateFirst(query(where("_id").is(id)), new Update().set("extra", 1), Person.class);
+
+            mc.commit();
+
+            DBObject document = mongoOps.getCollection(mongoOps.getCollectionName(Person.class))
+                    .findOne(new BasicDBObject("_id", id));
+            assertEquals("After", document.get("name"));
+            assertEquals(1, document.get("extra"));
+        } finally {
+            mongoOps.dropCollection(Person.class);
+        }
+    }
+
+    @Test
+    public void testEditsBeforeUpdateItemAreWritten() {
+        Person person = new Person("Before", null);
+        mongoOps.insert(person);
+        try {
+            final BufferedMongoContainer<Person> mc =
+                    MongoContainer.Builder.forEntity(Person.class, mongoOps).buildBuffered();
+            ObjectId id = mc.firstItemId();
+            // e.g., an editable Table changes the cached item first
+            mc.getItem(id).getItemProperty("name").setValue("After");
+            mc.updateItem(id);
+
+            mc.commit();
+
+            assertEquals("After", mongoOps.findById(id, Person.class).getName());
+        } finally {
+            mongoOps.dropCollection(Person.class);
+        }
+    }
+
+    @Test
+    public void testVersionConflictsRemainPending() {
+        mongoOps.insert(new Note("Before"));
+        try {
+            final BufferedMongoContainer<Note> mc =
+                    MongoContainer.Builder.forEntity(Note.class, mongoOps).buildBuffered();
+            ObjectId id = mc.firstItemId();
+            mc.updateItem(id).getItemProperty("text").setValue("Mine");
+
+            // another client saves a newer version meanwhile
+            Note theirs = mongoOps.findById(id, Note.class);
+            theirs.setText("Theirs");
+            mongoOps.save(theirs);
+
+            try {
+                mc.commit();
+                fail("the stale update should fail");
+            } catch (Buffered.SourceException ex) {
+                BulkCommitException bulkEx = (BulkCommitException) ex.getCause();
+                assertEquals(Collections.singletonList(id), bulkEx.getFailures().get(0).getItemIds());
+            }
+            assertEquals("Theirs", mongoOps.findById(id, Note.class).getText());
+            assertTrue(mc.isModified());
+        } finally {
+            mongoOps.dropCollection(Note.class);
+        }
+    }
+
+    @Test
+    public void testListenerFailureOnLaterChunk() {
+        final boolean[] failing = { true };
+        final BufferedMongoContainer<Customer> mc = builder()
+                .withCommitChunkSize(2)
+                .withMappingEvents(new ApplicationEventPublisher() {
+                    @Override
+                    public void publishEvent(ApplicationEvent event) {
+                        if (failing[0] && event instanceof BeforeSaveEvent
+                                && ((Customer) ((BeforeSaveEvent<?>) event).getSource()).getLastName().equals("Third"))
+                            throw new IllegalStateException("rejected");
+                    }
+                })
+                .buildBuffered();
+        int initSize = mc.size();
+
+        ObjectId first = mc.addEntity(new Customer("New", "First"));
+        ObjectId second = mc.addEntity(new Customer("New", "Second"));
+        ObjectId third = mc.addEntity(new Customer("New", "Third"));
+        ObjectId fourth = mc.addEntity(new Customer("New", "Fourth"));
+
+        try {
+            mc.commit();
+            fail("the listener should abort the commit");
+        } catch (Buffered.SourceException ex) {
+            assertTrue(ex.getCause() instanceof IllegalStateException);
+        }
+
+        // the first chunk has been written, and is not pending anymore
+        assertNotNull(mongoOps.findById(first, Customer.class));
+        assertNotNull(mongoOps.findById(second, Customer.class));
+        assertNull(mongoOps.findById(third, Customer.class));
+        assertTrue(mc.isModified());
+        assertEquals(initSize + 4, mc.size());
+
+        failing[0] = false;
+        mc.commit();
+        assertFalse(mc.isModified());
+        assertNotNull(mongoOps.findById(third, Customer.class));
+        assertNotNull(mongoOps.findById(fourth, Customer.class));
+        assertEquals(initSize + 4, mc.size());
+    }
+
+    @Test
+    public void testVersionsAndMappingEvents() {
+        final List<ApplicationEvent> events = new ArrayList<ApplicationEvent>();
+        try {
+            final BufferedMongoContainer<Note> mc =
+                    MongoContainer.Builder.forEntity(Note.class, mongoOps)
+                            .withMappingEvents(new ApplicationEventPublisher() {
+                                @Override
+                                public void publishEvent(ApplicationEvent event) {
+                                    events.add(event);
+                                }
+                            })
+                            .buildBuffered();
+
+            ObjectId id = mc.addEntity(new Note("New"));
+            mc.commit();
+            // BeforeConvert, BeforeSave, AfterSave
+            assertEquals(3, events.size());
+            assertEquals(Long.valueOf(0), mongoOps.findById(id, Note.class).getVersion());
+
+            // an untouched item is neither written nor converted
+            mc.updateItem(id);
+            mc.commit();
+            assertEquals(3, events.size());
+
+            mc.updateItem(id).getItemProperty("text").setValue("Changed");
+            mc.commit();
+            assertEquals(6, events.size());
+            Note note = mongoOps.findById(id, Note.class);
+            assertEquals("Changed", note.getText());
+            assertEquals(Long.valueOf(1), note.getVersion());
+
+            mc.removeItem(id);
+            mc.commit();
+            // BeforeDelete, AfterDelete
+            assertEquals(8, events.size());
+        } finally {
+            mongoOps.dropCollection(Note.class);
+        }
+    }
 }
@@ -0,0 +1,201 @@
+package org.tylproject.vaadin.addon.mongo;
+
+import com.vaadin.data.Container;
+import com.vaadin.data.util.filter.SimpleStringFilter;
+import org.bson.types.ObjectId;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.query.Update;
+import org.tylproject.data.mongo.Customer;
+import org.tylproject.vaadin.addon.HierarchicalMongoContainer;
+import org.tylproject.vaadin.addon.MongoContainer;
+import org.tylproject.vaadin.addon.changefeed.ChangeEvent;
+import org.tylproject.vaadin.addon.changefeed.InMemoryChangeFeed;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Invalidation driven by the changes of other clients
+ */
+public class ChangeFeedTest extends BaseTest {
+
+    private InMemoryChangeFeed feed;
+    private String namespace;
+    private MongoContainer<Customer> mc;
+    private int events;
+
+    @Before
+    public void setupContainer() {
+        feed = new InMemoryChangeFeed();
+        namespace = mongoOps.getCollection(mongoOps.getCollectionName(beanClass)).getFullName();
+        mc = builder().withChangeFeed(feed, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        }).build();
+        mc.addContainerFilter(new SimpleStringFilter("firstName", "Austin", false, true));
+        mc.getItemIds(0, mc.size());
+
+        events = 0;
+        mc.addItemSetChangeListener(new Container.ItemSetChangeListener() {
+            @Override
+            public void containerItemSetChange(Container.ItemSetChangeEvent event) {
+                events++;
+            }
+        });
+    }
+
+    @Test
+    public void testInsertIntoResultSet() {
+        Customer c = new Customer("Austin", "Powers");
+        mongoOps.save(c);
+        feed.publish(ChangeEvent.insert(namespace, c.getId()));
+
+        assertEquals(1, events);
+        assertEquals(3, mc.size());
+    }
+
+    @Test
+    public void testChangeOutsideResultSet() {
+        Customer c = new Customer("Leroy", "Jenkins");
+        mongoOps.save(c);
+        feed.publish(ChangeEvent.insert(namespace, c.getId()));
+        mongoOps.remove(c);
+        feed.publish(ChangeEvent.delete(namespace, c.getId()));
+
+        assertEquals(0, events);
+        assertEquals(2, mc.size());
+    }
+
+    @Test
+    public void testDeleteFromResultSet() {
+        ObjectId id = mc.firstItemId();
+        mongoOps.remove(mongoOps.findById(id, beanClass));
+        feed.publish(ChangeEvent.delete(namespace, id));
+
+        assertEquals(1, events);
+        assertEquals(1, mc.size());
+    }
+
+    @Test
+    public void testClosedFeed() {
+        mc.closeChangeFeed();
+        feed.publish(ChangeEvent.invalidate(namespace));
+        assertEquals(0, events);
+    }
+
+    @Test
+    public void testUpdateOfHiddenField() {
+        mc.setVisibleProperties(Arrays.asList("firstName"));
+        ObjectId id = mc.firstItemId();
+        mongoOps.updateFirst(query(where("_id").is(id)), Update.update("lastName", "Danger Powers"), beanClass);
+        feed.publish(ChangeEvent.update(namespace, id, Collections.singleton("lastName")));
+
+        assertEquals(0, events);
+        assertEquals(2, mc.size());
+    }
+
+    @Test
+    public void testUpdateOfVisibleField() {
+        mc.setVisibleProperties(Arrays.asList("firstName", "lastName"));
+        ObjectId id = mc.firstItemId();
+        mongoOps.updateFirst(query(where("_id").is(id)), Update.update("lastName", "Danger Powers"), beanClass);
+        feed.publish(ChangeEvent.update(namespace, id, Collections.singleton("lastName")));
+
+        assertEquals(1, events);
+        assertEquals(2, mc.size());
+    }
+
+    @Test
+    public void testBurstIsCoalesced() {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        MongoContainer<Customer> deferred = builder().withChangeFeed(feed, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        }).build();
+        deferred.size();
+        final int[] deferredEvents = { 0 };
+        deferred.addItemSetChangeListener(new Container.ItemSetChangeListener() {
+            @Override
+            public void containerItemSetChange(Container.ItemSetChangeEvent event) {
+                deferredEvents[0]++;
+            }
+        });
+
+        for (int i = 0; i < 10; i++) {
+            Customer c = new Customer("Austin", "Powers " + i);
+            mongoOps.save(c);
+            feed.publish(ChangeEvent.insert(namespace, c.getId()));
+        }
+
+        assertEquals(1, tasks.size());
+        tasks.get(0).run();
+        assertEquals(1, deferredEvents[0]);
+        assertEquals(12, mc.size());
+        deferred.closeChangeFeed();
+    }
+
+    @Test
+    public void testReparentedNode() {
+        HierarchicalTest.CelestialBody sun = new HierarchicalTest.CelestialBody("The Sun", null);
+        HierarchicalTest.CelestialBody earth = new HierarchicalTest.CelestialBody("Earth", sun);
+        HierarchicalTest.CelestialBody moon = new HierarchicalTest.CelestialBody("The Moon", earth);
+        mongoOps.insert(Arrays.asList(sun, earth, moon), HierarchicalTest.CelestialBody.class);
+        try {
+            String bodies = mongoOps.getCollection(
+                    mongoOps.getCollectionName(HierarchicalTest.CelestialBody.class)).getFullName();
+            HierarchicalMongoContainer<HierarchicalTest.CelestialBody> hc =
+                    MongoContainer.Builder.forEntity(HierarchicalTest.CelestialBody.class, mongoOps)
+                            .withChangeFeed(feed, new Executor() {
+                                @Override
+                                public void execute(Runnable command) {
+                                    command.run();
+                                }
+                            })
+                            .buildHierarchical("parent");
+            final int[] hierarchyEvents = { 0 };
+            hc.addItemSetChangeListener(new Container.ItemSetChangeListener() {
+                @Override
+                public void containerItemSetChange(Container.ItemSetChangeEvent event) {
+                    hierarchyEvents[0]++;
+                }
+            });
+            assertEquals(Collections.singletonList(earth.getId()), hc.getChildren(sun.getId()));
+
+            // the moon is neither on a page nor among the last children
+            mongoOps.updateFirst(query(where("_id").is(moon.getId())),
+                    Update.update("parent", sun.getId()), HierarchicalTest.CelestialBody.class);
+            feed.publish(ChangeEvent.update(bodies, moon.getId(), Collections.singleton("parent")));
+
+            assertEquals(1, hierarchyEvents[0]);
+            assertEquals(new HashSet<ObjectId>(Arrays.asList(earth.getId(), moon.getId())),
+                    new HashSet<ObjectId>(hc.getChildren(sun.getId())));
+            assertFalse(hc.hasChildren(earth.getId()));
+
+            // the earth is among the last children
+            hc.getChildren(sun.getId());
+            mongoOps.updateFirst(query(where("_id").is(earth.getId())),
+                    Update.update("parent", null), HierarchicalTest.CelestialBody.class);
+            feed.publish(ChangeEvent.update(bodies, earth.getId(), Collections.singleton("parent")));
+
+            assertEquals(2, hierarchyEvents[0]);
+            assertEquals(Collections.singletonList(moon.getId()), hc.getChildren(sun.getId()));
+            hc.closeChangeFeed();
+        } finally {
+            mongoOps.dropCollection(HierarchicalTest.CelestialBody.class);
+        }
+    }
+}
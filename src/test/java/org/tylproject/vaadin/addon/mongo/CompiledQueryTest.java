@@ -0,0 +1,76 @@
+package org.tylproject.vaadin.addon.mongo;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoClient;
+import org.junit.Test;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.tylproject.vaadin.addon.utils.CompiledQuery;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Rendering of {@link CompiledQuery}; no query is ever sent to the server
+ */
+public class CompiledQueryTest {
+
+    private final DBCollection collection;
+
+    public CompiledQueryTest() throws Exception {
+        // the client connects lazily
+        this.collection = new MongoClient().getDB("database").getCollection("customer");
+    }
+
+    @Test
+    public void testFingerprint() {
+        CompiledQuery a = CompiledQuery.compile(Query.query(where("firstName").is("Austin")), collection);
+        CompiledQuery b = CompiledQuery.compile(
+                Query.query(where("firstName").is("Austin")).with(new Sort("lastName")), collection);
+        CompiledQuery c = CompiledQuery.compile(Query.query(where("firstName").is("Keith")), collection);
+
+        assertEquals(a.getFingerprint(), b.getFingerprint());
+        assertNotEquals(a.getFingerprint(), c.getFingerprint());
+    }
+
+    @Test
+    public void testSortHasTieBreak() {
+        CompiledQuery q = CompiledQuery.compile(new Query().with(new Sort("lastName")), collection);
+        assertEquals(new BasicDBObject("lastName", 1).append("_id", 1), q.getSort());
+
+        q = CompiledQuery.compile(new Query(), collection);
+        assertEquals(new BasicDBObject("_id", 1), q.getSort());
+    }
+
+    @Test
+    public void testAndDoesNotMutate() {
+        CompiledQuery q = CompiledQuery.compile(Query.query(where("firstName").is("Austin")), collection);
+        String before = q.getFilter().toString();
+
+        DBObject derived = q.and(new BasicDBObject("parent", null));
+        assertNotSame(q.getFilter(), derived);
+        assertEquals(before, q.getFilter().toString());
+        assertSame(q.getFilter(), q.and(null));
+    }
+
+    @Test
+    public void testFields() {
+        CompiledQuery q = CompiledQuery.compile(
+                Query.query(new Criteria().orOperator(
+                        where("firstName").is("Austin"),
+                        where("address.city").regex("^Lon")))
+                        .with(new Sort("lastName")),
+                collection);
+        assertEquals(new HashSet<String>(Arrays.asList("firstName", "address.city", "lastName", "_id")),
+                q.getFields());
+
+        q = CompiledQuery.compile(Query.query(where("$where").is("this.a > 1")), collection);
+        assertNull(q.getFields());
+    }
+}
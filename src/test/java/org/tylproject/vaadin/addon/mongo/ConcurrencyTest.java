@@ -0,0 +1,79 @@
+package org.tylproject.vaadin.addon.mongo;
+
+import org.bson.types.ObjectId;
+import org.junit.Test;
+import org.tylproject.data.mongo.Customer;
+import org.tylproject.vaadin.addon.MongoContainer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Reads from many threads must see the same items as a single thread
+ */
+public class ConcurrencyTest extends BaseTest {
+
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 50;
+
+    private List<ObjectId> expectedIds() {
+        MongoContainer<Customer> mc = builder().withPageSize(100).build();
+        return mc.getItemIds(0, mc.size());
+    }
+
+    private void readConcurrently(final MongoContainer<Customer> mc, final List<ObjectId> expected)
+            throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> results = new ArrayList<Future<?>>();
+            for (int t = 0; t < THREADS; t++) {
+                final int stride = t % 3 + 1;
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        start.await();
+                        for (int round = 0; round < ROUNDS; round++) {
+                            for (int i = 0; i < expected.size(); i += stride) {
+                                List<ObjectId> ids = mc.getItemIds(i, stride);
+                                int end = Math.min(i + stride, expected.size());
+                                assertEquals(expected.subList(i, end), ids);
+                                for (ObjectId id: ids) assertNotNull(mc.getItem(id));
+                            }
+                            if (round % 10 == 0) mc.refresh();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            start.countDown();
+            // rethrows any failed assertion
+            for (Future<?> f: results) f.get();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testConcurrentReads() throws Exception {
+        readConcurrently(builder().build(), expectedIds());
+    }
+
+    @Test
+    public void testConcurrentReadsWithKeysetPagination() throws Exception {
+        readConcurrently(builder().withKeysetPagination().build(), expectedIds());
+    }
+
+    @Test
+    public void testConcurrentReadsOfBufferedContainer() throws Exception {
+        readConcurrently(builder().buildBuffered(), expectedIds());
+    }
+}
@@ -0,0 +1,76 @@
+package org.tylproject.vaadin.addon.mongo;
+
+import com.vaadin.data.util.filter.SimpleStringFilter;
+import org.junit.Test;
+import org.tylproject.data.mongo.Customer;
+import org.tylproject.vaadin.addon.MongoContainer;
+import org.tylproject.vaadin.addon.utils.CountCache;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that {@link MongoContainer#size()} is cached and invalidated
+ */
+public class CountCacheTest extends BaseTest {
+
+    @Test
+    public void testSizeIsCached() {
+        MongoContainer<Customer> mc = builder().build();
+        CountCache cache = mc.getCountCache();
+
+        long hits = cache.getHitCount();
+        assertEquals(7, mc.size());
+        assertEquals(7, mc.size());
+        assertEquals(7, mc.size());
+
+        assertEquals(hits + 2, cache.getHitCount());
+    }
+
+    @Test
+    public void testInvalidatedByMutations() {
+        MongoContainer<Customer> mc = builder().build();
+        assertEquals(7, mc.size());
+
+        mc.removeItem(mc.firstItemId());
+        assertEquals(6, mc.size());
+
+        mc.addEntity(new Customer("Leroy", "Jenkins"));
+        assertEquals(7, mc.size());
+
+        mc.addContainerFilter(new SimpleStringFilter("firstName", "i", false, false));
+        assertEquals(4, mc.size());
+
+        mc.removeAllContainerFilters();
+        assertEquals(7, mc.size());
+    }
+
+    @Test
+    public void testExternalWritesWithTtl() throws InterruptedException {
+        MongoContainer<Customer> mc = builder()
+                .withCountCacheTtl(50, TimeUnit.MILLISECONDS).build();
+        assertEquals(7, mc.size());
+
+        mongoOps.save(new Customer("Leroy", "Jenkins"));
+        Thread.sleep(100);
+
+        assertEquals(8, mc.size());
+    }
+
+    @Test
+    public void testMutationsAreReloadedOnce() {
+        MongoContainer<Customer> mc = builder().build();
+        mc.getItemIds(0, 3);
+        CountCache cache = mc.getCountCache();
+
+        mc.removeItem(mc.firstItemId());
+        mc.addEntity(new Customer("Leroy", "Jenkins"));
+        mc.refresh();
+
+        long misses = cache.getMissCount();
+        assertEquals(7, mc.size());
+        assertEquals(3, mc.getItemIds(0, 3).size());
+        assertEquals(misses + 1, cache.getMissCount());
+    }
+}
@@ -0,0 +1,63 @@
+package org.tylproject.vaadin.addon.mongo;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+import org.tylproject.vaadin.addon.utils.DocumentDiff;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Updates computed by {@link DocumentDiff}
+ */
+public class DocumentDiffTest {
+
+    private final ObjectId id = new ObjectId();
+
+    @Test
+    public void testEqualDocuments() {
+        DBObject before = new BasicDBObject("_id", id).append("name", "a")
+                .append("address", new BasicDBObject("street", "s"));
+        DBObject after = new BasicDBObject("_id", id).append("name", "a")
+                .append("address", new BasicDBObject("street", "s"));
+        assertTrue(DocumentDiff.isEmpty(DocumentDiff.updateOf(before, after)));
+    }
+
+    @Test
+    public void testSetAndUnset() {
+        DBObject before = new BasicDBObject("_id", id).append("name", "a").append("status", "open");
+        DBObject after = new BasicDBObject("_id", id).append("status", "closed").append("note", "n");
+
+        DBObject update = DocumentDiff.updateOf(before, after);
+        assertEquals(new BasicDBObject("status", "closed").append("note", "n"), update.get("$set"));
+        assertEquals(new BasicDBObject("name", ""), update.get("$unset"));
+    }
+
+    @Test
+    public void testNestedPaths() {
+        DBObject before = new BasicDBObject("_id", id)
+                .append("address", new BasicDBObject("street", "s").append("city", "c").append("zip", "z"));
+        DBObject after = new BasicDBObject("_id", id)
+                .append("address", new BasicDBObject("street", "t").append("city", "c"));
+
+        DBObject update = DocumentDiff.updateOf(before, after);
+        assertEquals(new BasicDBObject("address.street", "t"), update.get("$set"));
+        assertEquals(new BasicDBObject("address.zip", ""), update.get("$unset"));
+    }
+
+    @Test
+    public void testArraysAreReplacedWhole() {
+        BasicDBList tags = new BasicDBList();
+        tags.add("x");
+        BasicDBList newTags = new BasicDBList();
+        newTags.add("x");
+        newTags.add("y");
+
+        DBObject update = DocumentDiff.updateOf(
+                new BasicDBObject("tags", tags), new BasicDBObject("tags", newTags));
+        assertEquals(new BasicDBObject("tags", newTags), update.get("$set"));
+    }
+}
@@ -16,6 +16,8 @@ import org.tylproject.data.mongo.Customer;
 import org.tylproject.vaadin.addon.MongoContainer;
 import org.tylproject.vaadin.addon.utils.DefaultFilterConverter;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 
@@ -205,5 +207,60 @@ public class FilterTest extends BaseTest {
 
     }
 
+    @Test
+    public void testSetContainerFiltersFiresOnce() {
+        final MongoContainer<Customer> mc = builder().build();
+        final int[] events = {0};
+        mc.addItemSetChangeListener(new Container.ItemSetChangeListener() {
+            @Override
+            public void containerItemSetChange(Container.ItemSetChangeEvent event) {
+                events[0]++;
+            }
+        });
+
+        mc.setContainerFilters(Arrays.asList(
+                new SimpleStringFilter("firstName", "i", false, false),
+                new SimpleStringFilter("lastName", "s", false, false)));
+
+        assertEquals(1, events[0]);
+        assertEquals(2, mc.getContainerFilters().size());
+        // Austin Carlson, Jimmy Simpson
+        assertEquals(2, mc.size());
+
+        mc.batchUpdate(new Runnable() {
+            @Override
+            public void run() {
+                mc.removeAllContainerFilters();
+                mc.addContainerFilter(new SimpleStringFilter("firstName", "Austin", false, true));
+                mc.sort(new Object[]{"lastName"}, new boolean[]{false});
+            }
+        });
+
+        assertEquals(2, events[0]);
+        assertEquals(2, mc.size());
+    }
+
+    @Test
+    public void testRemoveSingleFilter() {
+        final MongoContainer<Customer> mc = builder().build();
+        Container.Filter f1 = new SimpleStringFilter("firstName", "i", false, false);
+        Container.Filter f2 = new SimpleStringFilter("lastName", "s", false, false);
+        mc.addAllContainerFilters(Arrays.asList(f1, f2));
+        assertEquals(2, mc.size());
+
+        mc.removeContainerFilter(f1);
+        assertEquals(Arrays.asList(f2), new ArrayList<Container.Filter>(mc.getContainerFilters()));
+        // Carlson, Harris, Simpson
+        assertEquals(3, mc.size());
+    }
+
+    @Test
+    public void testSortKeepsFilters() {
+        final MongoContainer<Customer> mc = builder().build();
+        mc.addContainerFilter(new SimpleStringFilter("firstName", "i", false, false));
+        mc.sort(new Object[]{"lastName"}, new boolean[]{true});
 
+        assertEquals(1, mc.getContainerFilters().size());
+        assertEquals(5, mc.size());
+    }
 }
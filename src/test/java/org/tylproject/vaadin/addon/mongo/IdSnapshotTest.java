@@ -0,0 +1,45 @@
+package org.tylproject.vaadin.addon.mongo;
+
+import org.bson.types.ObjectId;
+import org.junit.Test;
+import org.tylproject.vaadin.addon.utils.IdSnapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Packing and lookups of {@link IdSnapshot}, with each kind of storage
+ */
+public class IdSnapshotTest {
+
+    @Test
+    public void testAllStorages() {
+        // more than the initial capacity, so that the buffers grow
+        List<ObjectId> ids = new ArrayList<ObjectId>();
+        for (int i = 0; i < 3000; i++) ids.add(new ObjectId());
+
+        for (IdSnapshot.Storage storage: IdSnapshot.Storage.values()) {
+            IdSnapshot snapshot = IdSnapshot.of(ids.iterator(), storage);
+
+            assertEquals(ids.size(), snapshot.size());
+            for (int i = 0; i < ids.size(); i++) {
+                assertEquals(ids.get(i), snapshot.get(i));
+                assertEquals(i, snapshot.indexOf(ids.get(i)));
+            }
+            assertEquals(-1, snapshot.indexOf(new ObjectId()));
+            assertEquals(ids.subList(2990, 3000), snapshot.subList(2990, 20));
+            assertTrue(snapshot.subList(3000, 5).isEmpty());
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        IdSnapshot snapshot = IdSnapshot.of(new ArrayList<ObjectId>().iterator(), IdSnapshot.Storage.HEAP);
+        assertEquals(0, snapshot.size());
+        assertEquals(-1, snapshot.indexOf(new ObjectId()));
+        assertTrue(snapshot.subList(0, 10).isEmpty());
+    }
+}
@@ -0,0 +1,73 @@
+package org.tylproject.vaadin.addon.mongo;
+
+import com.mongodb.BasicDBObject;
+import com.vaadin.data.util.filter.Compare;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Query;
+import org.tylproject.data.mongo.Customer;
+import org.tylproject.vaadin.addon.MongoContainer;
+import org.tylproject.vaadin.addon.utils.CompiledQuery;
+import org.tylproject.vaadin.addon.utils.IndexAdvisor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Reports and provisioning of {@link IndexAdvisor}
+ */
+public class IndexAdvisorTest extends BaseTest {
+
+    @After
+    public void dropIndexes() {
+        mongoOps.getCollection(mongoOps.getCollectionName(beanClass)).dropIndexes();
+    }
+
+    @Test
+    public void testSuggestedIndex() {
+        CompiledQuery q = CompiledQuery.compile(
+                Query.query(where("lastName").is("Scott").and("firstName").regex("^A"))
+                     .with(new Sort(Sort.Direction.DESC, "firstName")),
+                mongoOps.getCollection(mongoOps.getCollectionName(beanClass)));
+
+        assertEquals(
+                new BasicDBObject("lastName", 1).append("firstName", -1).append("_id", 1),
+                IndexAdvisor.suggestIndex(q));
+    }
+
+    @Test
+    public void testUnindexedQueryIsReported() {
+        final List<IndexAdvisor.Advice> reported = new ArrayList<IndexAdvisor.Advice>();
+        MongoContainer<Customer> mc = builder().withIndexAdvisor(new IndexAdvisor.Listener() {
+            @Override
+            public void onUnindexedQuery(IndexAdvisor.Advice advice) {
+                reported.add(advice);
+            }
+        }).build();
+
+        assertEquals(1, reported.size());
+
+        // same shape, different value: not explained again
+        mc.addContainerFilter(new Compare.Equal("lastName", "Scott"));
+        mc.removeAllContainerFilters();
+        mc.addContainerFilter(new Compare.Equal("lastName", "Long"));
+        mc.size();
+        assertEquals(2, reported.size());
+    }
+
+    @Test
+    public void testIndexProvisioning() {
+        MongoContainer<Customer> mc = builder().withIndexProvisioning().build();
+        mc.addContainerFilter(new Compare.Equal("lastName", "Scott"));
+        mc.size();
+
+        IndexAdvisor.Advice advice = mc.explainQuery();
+        assertTrue(advice.toString(), advice.isCovered());
+        IndexAdvisor.assertCovered(advice);
+    }
+}
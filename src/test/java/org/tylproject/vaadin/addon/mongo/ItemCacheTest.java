@@ -0,0 +1,58 @@
+package org.tylproject.vaadin.addon.mongo;
+
+import org.junit.Test;
+import org.tylproject.vaadin.addon.utils.ItemCache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Eviction and statistics of {@link ItemCache}
+ */
+public class ItemCacheTest {
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        ItemCache<Integer, String> cache = new ItemCache<Integer, String>(2, false);
+        cache.put(1, "one");
+        cache.put(2, "two");
+        cache.get(1);
+        cache.put(3, "three");
+
+        assertEquals("one", cache.get(1));
+        assertNull(cache.get(2));
+        assertEquals("three", cache.get(3));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        ItemCache<Integer, String> cache = new ItemCache<Integer, String>(10, true);
+        cache.put(1, "one");
+        cache.get(1);
+        cache.get(1);
+        cache.get(2);
+
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testDisabled() {
+        ItemCache<Integer, String> cache = new ItemCache<Integer, String>(0, false);
+        cache.put(1, "one");
+        assertNull(cache.get(1));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testExpiredValues() throws InterruptedException {
+        ItemCache<Integer, String> cache = new ItemCache<Integer, String>(10, false, 20);
+        cache.put(1, "one");
+        assertEquals("one", cache.get(1));
+
+        Thread.sleep(40);
+        assertNull(cache.get(1));
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,75 @@
+package org.tylproject.vaadin.addon.mongo;
+
+import org.bson.types.ObjectId;
+import org.junit.Test;
+import org.springframework.data.domain.Sort;
+import org.tylproject.data.mongo.Customer;
+import org.tylproject.vaadin.addon.MongoContainer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Pages fetched by seeking must match those fetched by skipping
+ */
+public class KeysetPaginationTest extends BaseTest {
+
+    private List<ObjectId> expectedIds() {
+        // plain skip/limit, with the same tie-break used by keyset mode
+        MongoContainer<Customer> mc = builder()
+                .sortedBy(new Sort("firstName").and(new Sort("_id")))
+                .withPageSize(100).build();
+        return mc.getItemIds(0, mc.size());
+    }
+
+    @Test
+    public void testForward() {
+        List<ObjectId> expected = expectedIds();
+        MongoContainer<Customer> mc = builder().withKeysetPagination().build();
+
+        List<ObjectId> actual = new ArrayList<ObjectId>();
+        for (int i = 0; i < mc.size(); i += 3) {
+            actual.addAll(mc.getItemIds(i, 3));
+        }
+
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testBackward() {
+        List<ObjectId> expected = expectedIds();
+        MongoContainer<Customer> mc = builder().withKeysetPagination().build();
+
+        mc.getItemIds(6, 3);
+        assertEquals(expected.subList(3, 6), mc.getItemIds(3, 3));
+        assertEquals(expected.subList(0, 3), mc.getItemIds(0, 3));
+    }
+
+    @Test
+    public void testJump() {
+        List<ObjectId> expected = expectedIds();
+        MongoContainer<Customer> mc = builder().withKeysetPagination().build();
+
+        assertEquals(expected.subList(5, 7), mc.getItemIds(5, 3));
+        assertEquals(expected.subList(1, 4), mc.getItemIds(1, 3));
+    }
+
+    @Test
+    public void testDescending() {
+        MongoContainer<Customer> plain = builder().build();
+        plain.sort(new Object[]{"lastName"}, new boolean[]{false});
+        List<ObjectId> expected = plain.getItemIds(0, plain.size());
+
+        MongoContainer<Customer> mc = builder().withKeysetPagination().build();
+        mc.sort(new Object[]{"lastName"}, new boolean[]{false});
+
+        List<ObjectId> actual = new ArrayList<ObjectId>();
+        for (int i = 0; i < mc.size(); i += 3) {
+            actual.addAll(mc.getItemIds(i, 3));
+        }
+
+        assertEquals(expected, actual);
+    }
+}
@@ -12,6 +12,7 @@ import org.springframework.data.domain.Sort;
 import org.tylproject.data.mongo.Customer;
 import org.tylproject.data.mongo.Person;
 import org.tylproject.vaadin.addon.MongoContainer;
+import org.tylproject.vaadin.addon.utils.IdSnapshot;
 
 import org.bson.types.ObjectId;
 import org.junit.After;
@@ -22,7 +23,11 @@ import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.TestCase.assertFalse;
@@ -84,6 +89,63 @@ public class MongoContainerTest extends BaseTest {
     }
 
 
+    @Test
+    public void testIndexOfOutsidePage() {
+        final MongoContainer<Customer> mc = builder().build();
+        mc.sort(new Object[]{"firstName"}, new boolean[]{false});
+
+        List<ObjectId> ids = new ArrayList<ObjectId>();
+        for (int i = 0; i < mc.size(); i++) ids.add(mc.getIdByIndex(i));
+
+        // the page only holds the first 3 items
+        mc.getItemIds(0, 3);
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals(i, mc.indexOfId(ids.get(i)));
+        }
+        assertEquals(-1, mc.indexOfId(new ObjectId()));
+    }
+
+    @Test
+    public void testNavigation() {
+        for (MongoContainer<Customer> mc:
+                Arrays.asList(builder().build(), builder().withKeysetPagination().build(),
+                              builder().withIdSnapshot(IdSnapshot.Storage.HEAP).build())) {
+            List<ObjectId> ids = new ArrayList<ObjectId>();
+            for (int i = 0; i < mc.size(); i++) ids.add(mc.getIdByIndex(i));
+
+            List<ObjectId> forward = new ArrayList<ObjectId>();
+            for (ObjectId id = mc.firstItemId(); id != null; id = mc.nextItemId(id))
+                forward.add(id);
+            assertEquals(ids, forward);
+
+            List<ObjectId> backward = new ArrayList<ObjectId>();
+            for (ObjectId id = mc.lastItemId(); id != null; id = mc.prevItemId(id))
+                backward.add(0, id);
+            assertEquals(ids, backward);
+
+            for (int i = 0; i < ids.size(); i++) {
+                assertEquals(i == 0, mc.isFirstId(ids.get(i)));
+                assertEquals(i == ids.size() - 1, mc.isLastId(ids.get(i)));
+            }
+        }
+    }
+
+    @Test
+    public void testIdSnapshot() {
+        MongoContainer<Customer> plain = builder().build();
+        MongoContainer<Customer> mc = builder().withIdSnapshot(IdSnapshot.Storage.DIRECT).build();
+
+        assertEquals(plain.getItemIds(0, plain.size()), mc.getItemIds(0, mc.size()));
+        assertEquals(plain.getItemIds(5, 3), mc.getItemIds(5, 3));
+        ObjectId id = plain.getIdByIndex(4);
+        assertEquals(4, mc.indexOfId(id));
+
+        mc.removeItem(plain.firstItemId());
+        assertEquals(6, mc.size());
+        assertEquals(3, mc.indexOfId(id));
+        assertFalse(mc.containsId(plain.firstItemId()));
+    }
+
     /**
      * Version 0.9.5 raised an exception
      * when containsId() was called twice
@@ -175,6 +237,33 @@ public class MongoContainerTest extends BaseTest {
         assertEquals(mc.size(), mc.getItemIds().size());
     }
 
+    @Test
+    public void testGetItems() {
+        final MongoContainer<Customer> mc = builder().withItemCacheSize(0).build();
+        List<ObjectId> ids = new ArrayList<ObjectId>(mc.getItemIds(0, 3));
+        Collections.reverse(ids);
+        ids.add(new ObjectId());
+
+        Map<ObjectId, BeanItem<Customer>> items = mc.getItems(ids);
+
+        assertEquals(ids.subList(0, 3), new ArrayList<ObjectId>(items.keySet()));
+        for (ObjectId id: items.keySet()) {
+            assertEquals(id, items.get(id).getBean().getId());
+        }
+    }
+
+    @Test
+    public void testPagePrefetch() {
+        final MongoContainer<Customer> mc = builder().build();
+        List<ObjectId> ids = mc.getItemIds(3, 3);
+        long misses = mc.getItemCache().getMissCount();
+        for (ObjectId id: ids) {
+            mc.getContainerProperty(id, "firstName");
+            mc.getContainerProperty(id, "lastName");
+        }
+        assertEquals(misses, mc.getItemCache().getMissCount());
+    }
+
     @Test
     public void testRange() {
         final MongoContainer<Customer> mc = builder().build();
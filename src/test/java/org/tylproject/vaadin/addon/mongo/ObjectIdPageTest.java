@@ -0,0 +1,63 @@
+package org.tylproject.vaadin.addon.mongo;
+
+import org.bson.types.ObjectId;
+import org.junit.Test;
+import org.tylproject.vaadin.addon.utils.ObjectIdPage;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Packing and hashed lookups of {@link ObjectIdPage}
+ */
+public class ObjectIdPageTest {
+
+    private static List<ObjectId> ids(int n) {
+        List<ObjectId> ids = new ArrayList<ObjectId>(n);
+        for (int i = 0; i < n; i++) ids.add(new ObjectId());
+        return ids;
+    }
+
+    @Test
+    public void testRoundTrip() {
+        List<ObjectId> ids = ids(100);
+        ObjectIdPage page = new ObjectIdPage(100, 50, 1000);
+        for (int i = 0; i < ids.size(); i++) page.set(50 + i, ids.get(i));
+
+        assertEquals(ids, page.toImmutableList());
+        assertEquals(ids.subList(10, 15), page.subList(60, 5));
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals(ids.get(i), page.get(50 + i));
+            assertEquals(50 + i, page.indexOf(ids.get(i)));
+            assertTrue(page.contains(ids.get(i)));
+        }
+        assertEquals(new HashSet<ObjectId>(ids), page.valueSet);
+    }
+
+    @Test
+    public void testMissingValues() {
+        ObjectIdPage page = new ObjectIdPage(3, 0, 2);
+        page.set(0, new ObjectId());
+        page.set(1, new ObjectId());
+
+        assertEquals(2, page.toImmutableList().size());
+        assertEquals(-1, page.indexOf(new ObjectId()));
+        assertFalse(page.contains(new ObjectId()));
+        assertFalse(page.contains("not an id"));
+        assertNull(page.get(2));
+    }
+
+    @Test
+    public void testOverwrite() {
+        List<ObjectId> ids = ids(8);
+        ObjectIdPage page = new ObjectIdPage(2, 0, 2);
+        for (ObjectId id: ids) page.set(0, id);
+
+        assertEquals(ids.get(7), page.get(0));
+        assertEquals(0, page.indexOf(ids.get(7)));
+        assertFalse(page.contains(ids.get(6)));
+    }
+}
@@ -0,0 +1,69 @@
+package org.tylproject.vaadin.addon.mongo;
+
+import org.junit.Test;
+import org.tylproject.vaadin.addon.utils.Page;
+import org.tylproject.vaadin.addon.utils.PageCache;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Lookups, merging and eviction in {@link PageCache}
+ */
+public class PageCacheTest {
+
+    private static Page<Integer> page(int offset, int pageSize, int collectionSize) {
+        Page<Integer> page = new Page<Integer>(pageSize, offset, collectionSize);
+        for (int i = offset; i < Math.min(offset + pageSize, collectionSize); i++) {
+            page.set(i, i);
+        }
+        return page;
+    }
+
+    @Test
+    public void testMergesContiguousPages() {
+        PageCache<Integer> cache = new PageCache<Integer>(3);
+        cache.put(page(0, 3, 10));
+        cache.put(page(3, 3, 10));
+
+        assertEquals(Arrays.asList(1, 2, 3, 4), cache.find(1, 4));
+        assertNull(cache.find(4, 3));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testTruncatesAtTheEnd() {
+        PageCache<Integer> cache = new PageCache<Integer>(3);
+        cache.put(page(6, 3, 7));
+
+        assertEquals(Arrays.asList(6), cache.find(6, 3));
+        assertEquals(Arrays.<Integer>asList(), cache.find(8, 3));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        PageCache<Integer> cache = new PageCache<Integer>(2);
+        cache.put(page(0, 3, 10));
+        cache.put(page(3, 3, 10));
+        cache.find(0, 1);
+        cache.put(page(6, 3, 10));
+
+        assertEquals(Arrays.asList(0), cache.find(0, 1));
+        assertNull(cache.find(3, 1));
+        assertEquals(8, cache.indexOf(8));
+    }
+
+    @Test
+    public void testInvalidate() {
+        PageCache<Integer> cache = new PageCache<Integer>(2);
+        Page<Integer> page = page(0, 3, 10);
+        cache.put(page);
+        cache.invalidate();
+
+        assertNull(cache.find(0, 1));
+        assertEquals(false, page.isValid());
+    }
+}
@@ -0,0 +1,82 @@
+package org.tylproject.vaadin.addon.mongo;
+
+import org.junit.Test;
+import org.tylproject.vaadin.addon.utils.PositionSet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Order statistics of {@link PositionSet}, checked against a TreeSet
+ */
+public class PositionSetTest {
+
+    @Test
+    public void testSmallSet() {
+        PositionSet set = new PositionSet();
+        assertTrue(set.add(1));
+        assertTrue(set.add(2));
+        assertFalse(set.add(2));
+
+        assertEquals(2, set.size());
+        assertEquals(0, set.countBefore(1));
+        assertEquals(2, set.countBefore(3));
+        assertEquals(2, set.select(1));
+        assertEquals(-1, set.select(2));
+        assertEquals(0, set.selectAbsent(0));
+        assertEquals(3, set.selectAbsent(1));
+        // past the capacity of the tree
+        assertEquals(100, set.selectAbsent(98));
+
+        assertTrue(set.remove(1));
+        assertFalse(set.contains(1));
+        assertEquals(1, set.selectAbsent(1));
+    }
+
+    @Test
+    public void testAgainstTreeSet() {
+        Random random = new Random(42);
+        PositionSet set = new PositionSet();
+        TreeSet<Integer> expected = new TreeSet<Integer>();
+
+        for (int round = 0; round < 5000; round++) {
+            int position = random.nextInt(2000);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(position), set.remove(position));
+            } else {
+                assertEquals(expected.add(position), set.add(position));
+            }
+        }
+
+        assertEquals(expected.size(), set.size());
+        List<Integer> elements = new ArrayList<Integer>(expected);
+        for (int n = 0; n < elements.size(); n++) {
+            assertEquals((int) elements.get(n), set.select(n));
+        }
+        for (int p = 0; p < 2100; p++) {
+            assertEquals(expected.headSet(p).size(), set.countBefore(p));
+        }
+
+        int n = 0;
+        for (int p = 0; p < 2100; p++) {
+            if (expected.contains(p)) continue;
+            assertEquals(p, set.selectAbsent(n++));
+        }
+    }
+
+    @Test
+    public void testClear() {
+        PositionSet set = new PositionSet();
+        set.add(1000);
+        set.clear();
+        assertTrue(set.isEmpty());
+        assertEquals(0, set.countBefore(2000));
+        assertEquals(1000, set.selectAbsent(1000));
+    }
+}
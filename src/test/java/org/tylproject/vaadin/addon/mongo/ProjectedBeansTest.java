@@ -0,0 +1,55 @@
+package org.tylproject.vaadin.addon.mongo;
+
+import org.junit.Test;
+import org.tylproject.vaadin.addon.utils.ProjectedBeans;
+
+import java.util.Collections;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Projected beans are told apart by identity
+ */
+public class ProjectedBeansTest {
+
+    /**
+     * all the instances are equal to each other
+     */
+    static class Bean {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Bean;
+        }
+
+        @Override
+        public int hashCode() {
+            return 0;
+        }
+    }
+
+    @Test
+    public void testIdentity() {
+        ProjectedBeans projectedBeans = new ProjectedBeans();
+        Set<String> fields = Collections.singleton("name");
+        Bean projected = new Bean();
+
+        projectedBeans.put(projected, fields);
+        assertEquals(fields, projectedBeans.get(projected));
+        assertNull(projectedBeans.get(new Bean()));
+        assertEquals(1, projectedBeans.size());
+    }
+
+    @Test
+    public void testReclaimedBeansAreForgotten() throws InterruptedException {
+        ProjectedBeans projectedBeans = new ProjectedBeans();
+        for (int i = 0; i < 100; i++) projectedBeans.put(new Bean(), Collections.singleton("name"));
+
+        for (int i = 0; i < 50 && projectedBeans.size() > 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(0, projectedBeans.size());
+    }
+}
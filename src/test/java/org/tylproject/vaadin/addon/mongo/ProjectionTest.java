@@ -0,0 +1,73 @@
+package org.tylproject.vaadin.addon.mongo;
+
+import org.bson.types.ObjectId;
+import org.junit.Test;
+import org.tylproject.data.mongo.Customer;
+import org.tylproject.vaadin.addon.MongoContainer;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Items only hold the fields of the properties that are exposed or visible
+ */
+public class ProjectionTest extends BaseTest {
+
+    @Test
+    public void testDeclaredProperties() {
+        MongoContainer<Customer> mc = builder().withProperty("firstName").build();
+        ObjectId id = mc.firstItemId();
+
+        Customer c = mc.getItem(id).getBean();
+        assertEquals(id, c.getId());
+        assertNotNull(c.getFirstName());
+        assertNull(c.getLastName());
+    }
+
+    @Test
+    public void testVisibleProperties() {
+        MongoContainer<Customer> mc = builder().build();
+        ObjectId id = mc.firstItemId();
+
+        mc.setVisibleProperties(Arrays.asList("lastName"));
+        Customer c = mc.getItem(id).getBean();
+        assertNull(c.getFirstName());
+        assertNotNull(c.getLastName());
+
+        mc.setVisibleProperties(null);
+        c = mc.getItem(id).getBean();
+        assertNotNull(c.getFirstName());
+        assertNotNull(c.getLastName());
+    }
+
+    @Test
+    public void testSavingProjectedItem() {
+        MongoContainer<Customer> mc = builder().build();
+        ObjectId id = mc.firstItemId();
+        String firstName = mongoOps.findById(id, Customer.class).getFirstName();
+
+        mc.setVisibleProperties(Arrays.asList("lastName"));
+        Customer c = mc.getItem(id).getBean();
+        mc.addEntity(c);
+
+        // the fields that were not loaded are left untouched
+        Customer stored = mongoOps.findById(id, Customer.class);
+        assertEquals(firstName, stored.getFirstName());
+        assertEquals(c.getLastName(), stored.getLastName());
+
+        // a bean that is equal, but was not loaded by the container, is saved as a whole
+        Customer replacement = new Customer(null, "Replaced");
+        replacement.setId(id);
+        mc.addEntity(replacement);
+        assertNull(mongoOps.findById(id, Customer.class).getFirstName());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownProperty() {
+        builder().withProperty("firstName").build()
+                .setVisibleProperties(Arrays.asList("lastName"));
+    }
+}
@@ -9,8 +9,15 @@ import org.springframework.data.mongodb.core.MongoOperations;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.tylproject.data.mongo.Customer;
 import org.tylproject.vaadin.addon.MongoContainer;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
 
 /**
  * Created by evacchi on 11/02/15.
@@ -55,4 +62,59 @@ public class RangeTest {
             assertEquals(10, mc.getItemIds(23, 10).size());
 
     }
+
+    @Test
+    public void testSequentialScroll() {
+        final MongoContainer<Customer> plain = builder().build();
+        final List<ObjectId> expected = plain.getItemIds(0, plain.size());
+
+        for (MongoContainer.Builder<Customer> b: Arrays.asList(builder(), builder().withKeysetPagination())) {
+            final MongoContainer<Customer> mc = b
+                    .withPageSize(20)
+                    .withPageCacheSize(1)
+                    .withSequentialCursor(1, TimeUnit.MINUTES).build();
+
+            List<ObjectId> actual = new ArrayList<ObjectId>();
+            for (int i = 0; i < mc.size(); i += 20) {
+                actual.addAll(mc.getItemIds(i, 20));
+            }
+            assertEquals(expected, actual);
+
+            // jump back, then forward again
+            assertEquals(expected.subList(40, 60), mc.getItemIds(40, 20));
+            assertEquals(expected.subList(60, 80), mc.getItemIds(60, 20));
+        }
+    }
+
+    @Test
+    public void testAdaptivePageSize() {
+        final MongoContainer<Customer> plain = builder().build();
+        final List<ObjectId> expected = plain.getItemIds(0, plain.size());
+
+        final MongoContainer<Customer> mc = builder()
+                .withPageSize(10)
+                .withAdaptivePageSize(10, 80)
+                .withSequentialCursor(1, TimeUnit.MINUTES).build();
+
+        List<ObjectId> actual = new ArrayList<ObjectId>();
+        for (int i = 0; i < mc.size(); i += 10) {
+            actual.addAll(mc.getItemIds(i, 10));
+        }
+        assertEquals(expected, actual);
+        assertEquals(80, mc.getAdaptivePageSize().getPageSize());
+        // 20 ranges, served by 4 fetches of growing size
+        assertTrue(mc.getPageCache().getMissCount() <= 4);
+
+        // scrolling backward fetches the rows before the requested range
+        assertEquals(expected.subList(100, 110), mc.getItemIds(100, 10));
+        assertEquals(expected.subList(90, 100), mc.getItemIds(90, 10));
+        assertEquals(expected.subList(80, 90), mc.getItemIds(80, 10));
+
+        // random jumps shrink the pages back
+        mc.getItemIds(10, 10);
+        mc.getItemIds(150, 10);
+        mc.getItemIds(50, 10);
+        assertEquals(10, mc.getAdaptivePageSize().getPageSize());
+        assertEquals(expected.subList(120, 125), mc.getItemIds(120, 5));
+    }
 }
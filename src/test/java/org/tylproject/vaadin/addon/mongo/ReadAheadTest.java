@@ -0,0 +1,69 @@
+package org.tylproject.vaadin.addon.mongo;
+
+import com.vaadin.data.util.filter.SimpleStringFilter;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+import org.tylproject.data.mongo.Customer;
+import org.tylproject.vaadin.addon.MongoContainer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Background fetches of the adjacent page
+ */
+public class ReadAheadTest extends BaseTest {
+
+    /**
+     * runs the tasks only when asked to
+     */
+    static class DeferredExecutor implements Executor {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            for (Runnable r: tasks) r.run();
+            tasks.clear();
+        }
+    }
+
+    @Test
+    public void testNextPageIsPrefetched() {
+        DeferredExecutor executor = new DeferredExecutor();
+        MongoContainer<Customer> mc = builder().withReadAhead(executor).build();
+
+        mc.getItemIds(0, 3);
+        mc.getItemIds(3, 3);
+        assertEquals(1, executor.tasks.size());
+        executor.runAll();
+
+        long misses = mc.getPageCache().getMissCount();
+        List<ObjectId> ids = mc.getItemIds(6, 3);
+        assertEquals(misses, mc.getPageCache().getMissCount());
+        assertEquals(1, ids.size());
+        assertEquals(mc.getIdByIndex(6), ids.get(0));
+    }
+
+    @Test
+    public void testStalePrefetchIsDiscarded() {
+        DeferredExecutor executor = new DeferredExecutor();
+        MongoContainer<Customer> mc = builder().withReadAhead(executor).build();
+
+        mc.getItemIds(0, 3);
+        mc.getItemIds(3, 3);
+        mc.addContainerFilter(new SimpleStringFilter("firstName", "i", false, false));
+        executor.runAll();
+
+        // the filtered container only holds 5 items: index 4 is the last one
+        List<ObjectId> ids = mc.getItemIds(3, 3);
+        assertEquals(2, ids.size());
+        assertEquals(mc.getIdByIndex(4), ids.get(1));
+    }
+}
@@ -0,0 +1,74 @@
+package org.tylproject.vaadin.addon.mongo;
+
+import com.vaadin.data.util.filter.SimpleStringFilter;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+import org.tylproject.data.mongo.Customer;
+import org.tylproject.vaadin.addon.MongoContainer;
+import org.tylproject.vaadin.addon.utils.SizeStrategies;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Sizes reported by each {@link org.tylproject.vaadin.addon.utils.SizeStrategy},
+ * and navigation past them
+ */
+public class SizeStrategyTest extends BaseTest {
+
+    private List<ObjectId> allIds() {
+        MongoContainer<Customer> mc = builder().build();
+        return mc.getItemIds(0, mc.size());
+    }
+
+    @Test
+    public void testCapped() {
+        List<ObjectId> expected = allIds();
+        MongoContainer<Customer> mc = builder().withSizeStrategy(SizeStrategies.capped(5)).build();
+
+        assertEquals(5, mc.size());
+        assertFalse(mc.isSizeExact());
+        assertEquals(expected.subList(3, 6), mc.getItemIds(3, 3));
+        assertEquals(expected.get(6), mc.lastItemId());
+        assertEquals(expected.get(6), mc.nextItemId(expected.get(5)));
+
+        mc.addContainerFilter(new SimpleStringFilter("firstName", "i", false, false));
+        assertEquals(5, mc.size());
+        assertTrue(mc.isSizeExact());
+    }
+
+    @Test
+    public void testEstimated() {
+        MongoContainer<Customer> mc = builder().withSizeStrategy(SizeStrategies.estimated()).build();
+
+        assertEquals(7, mc.size());
+        assertFalse(mc.isSizeExact());
+
+        mc.addContainerFilter(new SimpleStringFilter("firstName", "i", false, false));
+        assertEquals(5, mc.size());
+        assertTrue(mc.isSizeExact());
+    }
+
+    @Test
+    public void testGrowing() {
+        List<ObjectId> expected = allIds();
+        MongoContainer<Customer> mc = builder().withSizeStrategy(SizeStrategies.growing(3)).build();
+
+        // the first page has been read by build()
+        assertEquals(6, mc.size());
+        assertFalse(mc.isSizeExact());
+        assertEquals(expected.get(6), mc.lastItemId());
+
+        List<ObjectId> actual = new ArrayList<ObjectId>();
+        while (!mc.isSizeExact()) {
+            actual.addAll(mc.getItemIds(actual.size(), 3));
+        }
+
+        assertEquals(7, mc.size());
+        assertEquals(expected, actual);
+    }
+}